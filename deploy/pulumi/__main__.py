@@ -170,7 +170,7 @@ def query_executor(id, index_class):
         s3_bucket=s3_bucket.id,
         s3_key=function_object.key,
         role=query_executor_role.arn,
-        handler="io.wrtn.lambda.QueryExecutor::handleRequest",
+        handler="io.wrtn.lambda.QueryExecutorStreamHandler::handleRequest",
         source_code_hash=function_object.source_hash,
         runtime=LAMBDA_RUNTIME_CONFIG,
         architectures=[LAMBDA_ARM_ARCHITECTURE],
@@ -1151,6 +1151,12 @@ index_builder_policy = aws.iam.RolePolicy(
                             f"{args['S3_BUCKET_ARN']}/*",
                         ],
                     },
+                    {
+                        "Sid": "AllowInvokeQueryExecutor",
+                        "Effect": "Allow",
+                        "Action": ["lambda:InvokeFunction"],
+                        "Resource": BASE_LAMBDA_RESOURCES,
+                    },
                     {
                         "Sid": "AccessToEcr",
                         "Effect": "Allow",
@@ -1612,7 +1618,7 @@ index_refresher = aws.lambda_.Function(
     s3_bucket=s3_bucket.id,
     s3_key=function_object.key,
     role=index_refresher_role.arn,
-    handler="io.wrtn.lambda.IndexRefresher::handleRequest",
+    handler="io.wrtn.lambda.IndexRefresherStreamHandler::handleRequest",
     source_code_hash=function_object.source_hash,
     runtime=LAMBDA_RUNTIME_CONFIG,
     architectures=[LAMBDA_ARM_ARCHITECTURE],
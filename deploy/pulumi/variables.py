@@ -389,6 +389,9 @@ BATCH_ENVIRONMENT_CONFIG = [
     {"name": "EFS_MOUNT_PATH", "value": EFS_MOUNT_PATH},
     {"name": "DEFAULT_LAMBDA_TIMEOUT", "value": DEFAULT_LAMBDA_TIMEOUT},
     {"name": "INDEX_BUILDER_CONCURRENCY", "value": INDEX_BUILDER_CONCURRENCY},
+    {"name": "QUERY_EXECUTOR_BASE_NAME_STD", "value": QUERY_EXECUTOR_NAME_STD},
+    {"name": "QUERY_EXECUTOR_BASE_NAME_IA", "value": QUERY_EXECUTOR_NAME_IA},
+    {"name": "QUERY_EXECUTOR_QUALIFIER", "value": QUERY_EXECUTOR_QUALIFIER},
 ]
 
 ROUTES = [
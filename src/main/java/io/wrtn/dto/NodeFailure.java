@@ -0,0 +1,40 @@
+package io.wrtn.dto;
+
+/**
+ * A compute node whose results are missing or partial in a query response. The node id is null
+ * for the refresher of recent writes.
+ */
+public class NodeFailure {
+
+    private Integer computeNodeId;
+    private String reason;
+
+    public NodeFailure(Integer computeNodeId, String reason) {
+        this.computeNodeId = computeNodeId;
+        this.reason = reason;
+    }
+
+    public Integer getComputeNodeId() {
+        return computeNodeId;
+    }
+
+    public void setComputeNodeId(Integer computeNodeId) {
+        this.computeNodeId = computeNodeId;
+    }
+
+    public String getReason() {
+        return reason;
+    }
+
+    public void setReason(String reason) {
+        this.reason = reason;
+    }
+
+    @Override
+    public String toString() {
+        return "NodeFailure{" +
+            "computeNodeId=" + computeNodeId +
+            ", reason='" + reason + '\'' +
+            '}';
+    }
+}
@@ -14,6 +14,7 @@ public class QueryRequest {
     private boolean trackScores;
     private boolean consistentRead;
     private boolean includeVectors;
+    private Long timeoutMs;
 
     public Integer getSize() {
         return size;
@@ -71,6 +72,14 @@ public class QueryRequest {
         this.includeVectors = includeVectors;
     }
 
+    public Long getTimeoutMs() {
+        return timeoutMs;
+    }
+
+    public void setTimeoutMs(Long timeoutMs) {
+        this.timeoutMs = timeoutMs;
+    }
+
     @Override
     public String toString() {
         return "QueryRequest{" +
@@ -81,6 +90,7 @@ public class QueryRequest {
             ", trackScores=" + trackScores +
             ", consistentRead=" + consistentRead +
             ", includeVectors=" + includeVectors +
+            ", timeoutMs=" + timeoutMs +
             '}';
     }
 }
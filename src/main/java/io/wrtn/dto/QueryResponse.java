@@ -10,6 +10,8 @@ public class QueryResponse {
     private Float maxScore;
     private long total;
     private Document[] docs;
+    private boolean timedOut;
+    private NodeFailure[] failures;
 
     public long getTook() {
         return took;
@@ -43,6 +45,22 @@ public class QueryResponse {
         this.docs = docs;
     }
 
+    public boolean getTimedOut() {
+        return timedOut;
+    }
+
+    public void setTimedOut(boolean timedOut) {
+        this.timedOut = timedOut;
+    }
+
+    public NodeFailure[] getFailures() {
+        return failures;
+    }
+
+    public void setFailures(NodeFailure[] failures) {
+        this.failures = failures;
+    }
+
     @Override
     public String toString() {
         return "QueryResponse{" +
@@ -50,6 +68,8 @@ public class QueryResponse {
             ", maxScore=" + maxScore +
             ", total=" + total +
             ", docs=" + Arrays.toString(docs) +
+            ", timedOut=" + timedOut +
+            ", failures=" + Arrays.toString(failures) +
             '}';
     }
 }
@@ -97,7 +97,17 @@ public final class Constants {
 
     public static final String STORAGE_META_FILE_NAME = "meta.json";
 
+    public static final int STORAGE_FILE_HEADER_LENGTH = 128;
+    public static final int STORAGE_FILE_FOOTER_LENGTH = 16;
+
+    // Rough heap held by an open segment reader, besides its per-document structures
+    public static final long SEGMENT_READER_HEAP_BYTES = 64 * 1024;
+    // Live docs, and the bloom filter of the id terms which takes about 5 bits per document
+    public static final int SEGMENT_READER_HEAP_BITS_PER_DOC = 9;
+
     public static final int MAX_STORAGE_REQUEST_AT_ONCE = 100;
+    public static final int MAX_STORAGE_REQUEST_ATTEMPTS = 3;
+    public static final long STORAGE_REQUEST_RETRY_BACKOFF_MS = 200;
 
     public static final int MIN_DOCS_SIZE_MB_FOR_INDEX_BUILD_CONCURRENCY = 1;
     public static final int MIN_NUM_DOCS_FOR_INDEX_BUILD_CONCURRENCY = 1000;
@@ -0,0 +1,173 @@
+package io.wrtn.engine.lucene;
+
+import static io.wrtn.util.Constants.Config.HELPER_REGISTRY_MEMORY_LIMIT_MB;
+
+import io.wrtn.util.GlobalLogger;
+import io.wrtn.util.SizeConverter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import org.apache.lucene.util.Accountable;
+
+/**
+ * Keeps helpers open across invocations within a memory budget. Helpers are reference counted
+ * while in use, and the least recently used idle ones are closed once the estimated footprint of
+ * all helpers exceeds the budget. A helper is loaded only once even if it is requested
+ * concurrently.
+ */
+public final class HelperRegistry<T extends Accountable & Closeable> {
+
+    @FunctionalInterface
+    public interface Loader<T> {
+
+        T load() throws Exception;
+    }
+
+    private static final class Entry<T> {
+
+        private final CompletableFuture<T> helper = new CompletableFuture<>();
+        private int refCount = 0;
+        private long lastAccess;
+        private long footprint = 0;
+    }
+
+    // Leave room for the request payloads and the JVM itself
+    private static final double DEFAULT_BUDGET_RATIO = 0.8;
+
+    private final long budget;
+
+    // Guarded by this
+    private final Map<String, Entry<T>> entries = new HashMap<>();
+    private long usedBytes = 0;
+    private long clock = 0;
+
+    public HelperRegistry(long budget) {
+        this.budget = budget;
+    }
+
+    public HelperRegistry() {
+        this(defaultBudget());
+    }
+
+    private static long defaultBudget() {
+        if (HELPER_REGISTRY_MEMORY_LIMIT_MB > 0) {
+            return SizeConverter.mbToB(HELPER_REGISTRY_MEMORY_LIMIT_MB);
+        }
+
+        // Set by the Lambda runtime
+        String lambdaMemoryMb = System.getenv("AWS_LAMBDA_FUNCTION_MEMORY_SIZE");
+        if (lambdaMemoryMb != null) {
+            return (long) (SizeConverter.mbToB(Integer.parseInt(lambdaMemoryMb))
+                * DEFAULT_BUDGET_RATIO);
+        }
+        return (long) (Runtime.getRuntime().maxMemory() * DEFAULT_BUDGET_RATIO);
+    }
+
+    /**
+     * Returns the helper registered under the key, loading it if absent. Every successful call
+     * must be paired with {@link #release(String, Accountable)}.
+     */
+    public T acquire(String key, Loader<T> loader) throws Exception {
+        Entry<T> entry;
+        boolean isLoader = false;
+        synchronized (this) {
+            entry = entries.get(key);
+            if (entry == null) {
+                entry = new Entry<>();
+                entries.put(key, entry);
+                isLoader = true;
+            }
+            entry.refCount++;
+            entry.lastAccess = ++clock;
+        }
+
+        if (isLoader) {
+            try {
+                entry.helper.complete(loader.load());
+            } catch (Exception e) {
+                remove(key, entry);
+                entry.helper.completeExceptionally(e);
+                throw e;
+            }
+        }
+
+        try {
+            return entry.helper.join();
+        } catch (CompletionException e) {
+            // Loaded by another request, which has removed the entry already
+            throw e.getCause() instanceof Exception cause ? cause : e;
+        }
+    }
+
+    /**
+     * Releases a helper acquired under the key, and closes idle helpers if the registry is over
+     * budget. The footprint of the helper is estimated again since it may have been refreshed.
+     */
+    public void release(String key, T helper) {
+        long footprint = helper.ramBytesUsed();
+
+        List<T> victims = new ArrayList<>();
+        synchronized (this) {
+            Entry<T> entry = entries.get(key);
+            if (entry != null && entry.helper.getNow(null) == helper) {
+                entry.refCount--;
+                usedBytes += footprint - entry.footprint;
+                entry.footprint = footprint;
+            }
+            evict(victims);
+        }
+
+        for (T victim : victims) {
+            try {
+                victim.close();
+            } catch (IOException e) {
+                GlobalLogger.warn("Failed to close evicted helper: " + e);
+            }
+        }
+    }
+
+    private synchronized void remove(String key, Entry<T> entry) {
+        if (entries.remove(key, entry)) {
+            usedBytes -= entry.footprint;
+        }
+    }
+
+    private void evict(List<T> victims) {
+        while (usedBytes > budget) {
+            String victimKey = null;
+            Entry<T> victim = null;
+            for (Map.Entry<String, Entry<T>> e : entries.entrySet()) {
+                Entry<T> candidate = e.getValue();
+                if (candidate.refCount == 0 && candidate.helper.isDone()
+                    && (victim == null || candidate.lastAccess < victim.lastAccess)) {
+                    victimKey = e.getKey();
+                    victim = candidate;
+                }
+            }
+
+            if (victim == null) {
+                // Only helpers in use are left
+                return;
+            }
+
+            entries.remove(victimKey);
+            usedBytes -= victim.footprint;
+            GlobalLogger.info("Evicting helper " + victimKey + " footprint=" + victim.footprint
+                + " used=" + usedBytes + " budget=" + budget);
+            victims.add(victim.helper.join());
+        }
+    }
+
+    public synchronized long getUsedBytes() {
+        return usedBytes;
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+}
@@ -5,6 +5,7 @@ import static io.wrtn.infra.aws.Constants.S3.INDEX_BUCKET;
 import static io.wrtn.infra.aws.Constants.S3.TEMP_BUCKET;
 import static io.wrtn.util.Constants.CommandType.*;
 import static io.wrtn.util.Constants.Config.*;
+import static io.wrtn.util.PathBuilder.buildQueryExecutorName;
 import static io.wrtn.util.PathBuilder.buildStorageShardPath;
 import static io.wrtn.util.JsonParser.gson;
 
@@ -19,8 +20,10 @@ import io.wrtn.engine.lucene.store.s3.cache.fs.FSCache;
 import io.wrtn.engine.lucene.store.s3.cache.fs.FSCacheConfig;
 import io.wrtn.engine.lucene.store.s3.storage.s3.S3Storage;
 import io.wrtn.engine.lucene.util.DocUtils;
+import io.wrtn.infra.aws.Lambda;
 import io.wrtn.infra.aws.S3;
 import io.wrtn.engine.lucene.util.SegmentBalancer;
+import io.wrtn.model.event.QueryEvent;
 import io.wrtn.model.storage.File;
 import io.wrtn.model.storage.ComputeNode;
 import io.wrtn.model.storage.StorageMetadata;
@@ -40,6 +43,7 @@ import io.wrtn.engine.lucene.store.DirectoryBuilder;
 import io.wrtn.engine.lucene.store.s3.storage.s3.S3StorageConfig;
 import java.util.concurrent.Callable;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.concurrent.ExecutionException;
 import io.wrtn.model.wal.WalRecord;
 import io.wrtn.model.index.FieldConfig;
@@ -58,8 +62,10 @@ import io.wrtn.util.GlobalExceptionHandler;
 import org.apache.lucene.queryparser.flexible.core.QueryNodeException;
 import org.apache.lucene.search.Query;
 import org.apache.lucene.store.MMapDirectory;
+import software.amazon.awssdk.auth.credentials.DefaultCredentialsProvider;
 import software.amazon.awssdk.core.ResponseBytes;
 import software.amazon.awssdk.core.ResponseInputStream;
+import software.amazon.awssdk.services.lambda.model.InvokeResponse;
 import software.amazon.awssdk.services.s3.model.GetObjectResponse;
 import software.amazon.awssdk.services.s3.model.PutObjectResponse;
 
@@ -81,6 +87,10 @@ public class IndexBuildHelper {
     private List<ComputeNode> computeNodes;
     private final List<ExecutorService> executors;
 
+    // Files of each partition at the last commit, to find the QueryExecutors to warm up
+    private final Map<Integer, Set<String>> partitionFiles = new HashMap<>();
+    private final Lambda lambdaClient;
+
     public IndexBuildHelper(final Index index, final int shardId)
         throws IOException, ExecutionException, InterruptedException, GlobalExceptionHandler {
 
@@ -155,6 +165,10 @@ public class IndexBuildHelper {
         this.mappings = index.getMappings();
 
         this.tempDirectory = new MMapDirectory(Paths.get(FS_TEMP_PATH));
+
+        // Batch jobs run with the task role instead of Lambda environment credentials
+        this.lambdaClient = INDEX_BUILDER_WARMUP_EXECUTORS ? new Lambda(
+            DefaultCredentialsProvider.create()) : null;
     }
 
     public int getNumDocs() throws GlobalExceptionHandler, IOException {
@@ -179,6 +193,9 @@ public class IndexBuildHelper {
         buffer.close();
         cache.close();
         storage.close();
+        if (lambdaClient != null) {
+            lambdaClient.close();
+        }
 
         for (ExecutorService executor : executors) {
             executor.shutdownNow();
@@ -217,6 +234,7 @@ public class IndexBuildHelper {
 
         // Fill out each partition metadata with segments
         List<CompletableFuture<PutObjectResponse>> futures = new ArrayList<>();
+        List<Integer> changedNodeIds = new ArrayList<>();
         StorageMetadata newMeta = new StorageMetadata(currentMeta);
         for (int i = 0; i < newNumComputeNodes; i++) {
             ComputeNode node = newComputeNodes.get(i);
@@ -235,6 +253,12 @@ public class IndexBuildHelper {
                 partitionMeta.getSegmentIds().add(segment.info.name);
             }
 
+            // Compared before adding segments_N, which changes on every commit
+            Set<String> files = new HashSet<>(partitionMeta.getFileMap().keySet());
+            if (!files.equals(partitionFiles.put(node.getNodeId(), files))) {
+                changedNodeIds.add(node.getNodeId());
+            }
+
             SegmentInfos partitionSegment = partitionMeta.getSegmentInfos();
             partitionSegment.commit(tempDirectory);
             String segmentFileName = partitionSegment.getSegmentsFileName();
@@ -269,6 +293,7 @@ public class IndexBuildHelper {
                 // Delete partition metadata not used anymore
                 s3Client.deleteObject(INDEX_BUCKET,
                     PathBuilder.buildPartitionMetaKeyForWrite(newMeta, node.getNodeId()));
+                partitionFiles.remove(node.getNodeId());
             }
         }
 
@@ -283,6 +308,47 @@ public class IndexBuildHelper {
 
         s3Client.putObject(INDEX_BUCKET, PathBuilder.buildMetaKey(newMeta.getCurrentPrefix()),
             newMeta);
+
+        if (lambdaClient != null && !changedNodeIds.isEmpty()) {
+            warmUpExecutors(index, newMeta, changedNodeIds);
+        }
+    }
+
+    /**
+     * Fires asynchronous warm-up events at the QueryExecutors of the given compute nodes, so that
+     * they open the new snapshot before the next user query arrives. A failed warm-up only leaves
+     * the snapshot to be opened by that query, so it does not fail the commit.
+     */
+    private void warmUpExecutors(Index index, StorageMetadata meta, List<Integer> nodeIds) {
+        List<CompletableFuture<InvokeResponse>> futures = new ArrayList<>(nodeIds.size());
+        for (int nodeId : nodeIds) {
+            String partitionMetaName = PathBuilder.buildPartitionMetaName(nodeId);
+
+            QueryEvent event = new QueryEvent();
+            event.setType(QUERY_EXECUTOR_WARMUP);
+            event.setShardId(TEMPORARY_SHARD_ID);
+            event.setProjectId(index.getProjectId());
+            event.setIndexName(index.getIndexName());
+            event.setIndexClass(index.getIndexClass());
+            event.setMappings(index.getMappings());
+            event.setComputeNodeId(nodeId);
+            event.setMetaObjectKey(PathBuilder.buildObjectKeyForRead(meta, partitionMetaName));
+            event.setMetaObjectVersionId(meta.getFileMap().get(partitionMetaName).getVersionId());
+            event.setConsistentRead(true);
+
+            futures.add(lambdaClient.invokeAsyncEvent(
+                buildQueryExecutorName(nodeId, index.getIndexClass()), QUERY_EXECUTOR_QUALIFIER,
+                event));
+        }
+
+        for (int i = 0; i < futures.size(); i++) {
+            try {
+                futures.get(i).join();
+            } catch (CompletionException e) {
+                GlobalLogger.warn("Failed to warm up QueryExecutor of compute node "
+                    + nodeIds.get(i) + ": " + e.getCause());
+            }
+        }
     }
 
     public long getStorageSize() {
@@ -4,6 +4,8 @@ import static io.wrtn.engine.lucene.Constants.DOC_FIELD_ID;
 
 import static io.wrtn.engine.lucene.Constants.DOC_FIELD_INTERNAL_DOCUMENT;
 import static io.wrtn.engine.lucene.Constants.DOC_FIELD_INTERNAL_WAL_ID;
+import static io.wrtn.engine.lucene.Constants.SEGMENT_READER_HEAP_BITS_PER_DOC;
+import static io.wrtn.engine.lucene.Constants.SEGMENT_READER_HEAP_BYTES;
 import static io.wrtn.infra.aws.Constants.S3.TEMP_BUCKET;
 import static io.wrtn.util.Constants.CommandType.DOCUMENT_DELETE;
 import static io.wrtn.util.Constants.CommandType.DOCUMENT_UPSERT;
@@ -24,6 +26,7 @@ import io.wrtn.engine.lucene.query.SearchQueryBuilder;
 import io.wrtn.engine.lucene.query.SortBuilder;
 import io.wrtn.engine.lucene.store.DirectoryBuilder;
 import io.wrtn.engine.lucene.util.DocUtils;
+import io.wrtn.engine.lucene.util.IdLookup;
 import io.wrtn.infra.aws.EFS;
 import io.wrtn.infra.aws.Lambda;
 import io.wrtn.infra.aws.S3;
@@ -35,6 +38,7 @@ import io.wrtn.util.DocumentIterator;
 import io.wrtn.util.GlobalLogger;
 import io.wrtn.util.PathBuilder;
 import io.wrtn.util.UUID;
+import java.io.Closeable;
 import java.io.IOException;
 import java.io.InputStream;
 import java.nio.file.Path;
@@ -55,26 +59,25 @@ import org.apache.lucene.document.StoredField;
 import org.apache.lucene.document.StringField;
 import org.apache.lucene.index.IndexReader;
 import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.LeafReaderContext;
 import org.apache.lucene.index.Term;
 import org.apache.lucene.queryparser.flexible.core.QueryNodeException;
-import org.apache.lucene.search.BooleanClause.Occur;
-import org.apache.lucene.search.BooleanQuery;
 import org.apache.lucene.search.IndexSearcher;
 import org.apache.lucene.search.MatchAllDocsQuery;
 import org.apache.lucene.search.Query;
 import org.apache.lucene.search.ScoreDoc;
 import org.apache.lucene.search.Sort;
-import org.apache.lucene.search.TermQuery;
 import org.apache.lucene.search.TopDocs;
 import org.apache.lucene.search.similarities.BM25Similarity;
 import org.apache.lucene.store.Directory;
+import org.apache.lucene.util.Accountable;
 import io.wrtn.util.GlobalExceptionHandler;
 import io.wrtn.util.StatusCode;
 
 import software.amazon.awssdk.core.ResponseInputStream;
 import software.amazon.awssdk.services.s3.model.GetObjectResponse;
 
-public class IndexRefreshHelper {
+public class IndexRefreshHelper implements Accountable, Closeable {
 
     private Index index;
     private final String walPath;
@@ -300,15 +303,7 @@ public class IndexRefreshHelper {
 
     public RefreshedDocs fetch(String[] fetchIds, boolean includeVectors, String[] fields)
         throws IOException {
-        BooleanQuery.Builder builder = new BooleanQuery.Builder();
-        Term prototype = new Term(DOC_FIELD_ID, "");
-
-        for (String id : fetchIds) {
-            Term currentTerm = new Term(prototype.field(), id);
-            builder.add(new TermQuery(currentTerm), Occur.SHOULD);
-        }
-        Query fetchQuery = builder.build();
-        TopDocs topDocs = searcher.search(fetchQuery, fetchIds.length);
+        TopDocs topDocs = IdLookup.lookup(searcher.getIndexReader(), fetchIds);
 
         List<Document> docs = DocUtils.fetchDocuments(topDocs, includeVectors, false, fields,
             searcher,
@@ -317,6 +312,21 @@ public class IndexRefreshHelper {
         return new RefreshedDocs(docs.toArray(new Document[0]), deletedDocIdMap.keySet());
     }
 
+    /**
+     * Estimates the heap held by this helper: the writer buffer, and the heap of each segment
+     * reader. The index files live on local disk and are not counted.
+     */
+    @Override
+    public long ramBytesUsed() {
+        long bytes = writer.ramBytesUsed();
+        for (LeafReaderContext leaf : reader.leaves()) {
+            bytes += SEGMENT_READER_HEAP_BYTES
+                + (long) leaf.reader().maxDoc() * SEGMENT_READER_HEAP_BITS_PER_DOC / Byte.SIZE;
+        }
+        return bytes;
+    }
+
+    @Override
     public void close() throws IOException {
         reader.close();
         writer.close();
@@ -0,0 +1,307 @@
+package io.wrtn.engine.lucene;
+
+import io.wrtn.util.Threads;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.QueryTimeout;
+import org.apache.lucene.search.BooleanClause.Occur;
+import org.apache.lucene.search.FieldDoc;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.KnnByteVectorQuery;
+import org.apache.lucene.search.KnnFloatVectorQuery;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.QueryVisitor;
+import org.apache.lucene.search.Sort;
+import org.apache.lucene.search.TopDocs;
+import org.apache.lucene.search.TopFieldDocs;
+import org.apache.lucene.search.TotalHits;
+import org.apache.lucene.util.Accountable;
+import org.apache.lucene.util.Bits;
+import org.apache.lucene.util.BytesRef;
+import org.apache.lucene.util.RamUsageEstimator;
+
+/**
+ * Caches the top hits of sorted queries per segment, so that a reader reopened after a commit
+ * only searches its new segments. Hits are keyed by the segment core, which outlives reopens,
+ * and deletions made since are applied with the live docs of the current reader.
+ * <p>
+ * Only queries sorted by fields without scores are cached: scores depend on the statistics of
+ * the whole index, and a kNN query selects its nearest neighbors across all segments.
+ * <p>
+ * Entries are bounded both in number and by the heap of their hits, least recently used first.
+ */
+public final class LeafResultCache implements Accountable {
+
+    private record Key(IndexReader.CacheKey coreKey, Query query, Sort sort) {
+
+    }
+
+    /**
+     * The top hits of a segment and its total hits, with the number of deleted documents they were
+     * counted with, and whether they are all its matching documents.
+     */
+    private record Entry(FieldDoc[] hits, TotalHits totalHits, int numDeletedDocs,
+                         boolean exhausted, long ramBytes) {
+
+    }
+
+    /**
+     * The cached hits of a segment without the deleted ones, and their total hits.
+     */
+    private record LeafHits(FieldDoc[] hits, TotalHits totalHits) {
+
+    }
+
+    private static final long FIELD_DOC_BYTES = RamUsageEstimator.shallowSizeOfInstance(
+        FieldDoc.class);
+    private static final long BYTES_REF_BYTES = RamUsageEstimator.shallowSizeOfInstance(
+        BytesRef.class);
+    private static final long ENTRY_BYTES = RamUsageEstimator.shallowSizeOfInstance(Entry.class)
+        + RamUsageEstimator.shallowSizeOfInstance(Key.class)
+        + RamUsageEstimator.shallowSizeOfInstance(TotalHits.class)
+        + RamUsageEstimator.LINKED_HASHTABLE_RAM_BYTES_PER_ENTRY;
+
+    private final int maxEntries;
+    private final long maxBytes;
+
+    // Guarded by this
+    private final LinkedHashMap<Key, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private final Set<IndexReader.CacheKey> listenedCores = new HashSet<>();
+    private long usedBytes = 0;
+
+    public LeafResultCache(int maxEntries, long maxBytes) {
+        this.maxEntries = maxEntries;
+        this.maxBytes = maxBytes;
+    }
+
+    public boolean isCacheable(Query query, Sort sort, boolean trackScores) {
+        if (maxEntries <= 0 || maxBytes <= 0 || trackScores || sort.needsScores()) {
+            return false;
+        }
+
+        boolean[] hasKnn = {false};
+        query.visit(new QueryVisitor() {
+            @Override
+            public void visitLeaf(Query leaf) {
+                if (leaf instanceof KnnFloatVectorQuery || leaf instanceof KnnByteVectorQuery) {
+                    hasKnn[0] = true;
+                }
+            }
+
+            @Override
+            public QueryVisitor getSubVisitor(Occur occur, Query parent) {
+                return this;
+            }
+        });
+        return !hasKnn[0];
+    }
+
+    /**
+     * Searches the segments without cached hits, and merges their hits with the cached ones.
+     * Hits of a segment are not cached if its search timed out.
+     */
+    public SearchResult<TopFieldDocs> search(IndexSearcher searcher, Query query, Sort sort,
+        int size, QueryTimeout timeout) throws IOException {
+        List<LeafReaderContext> leaves = searcher.getIndexReader().leaves();
+        LeafHits[] leafHits = new LeafHits[leaves.size()];
+
+        List<LeafReaderContext> missing = new ArrayList<>();
+        for (LeafReaderContext leaf : leaves) {
+            leafHits[leaf.ord] = getCached(leaf, query, sort, size);
+            if (leafHits[leaf.ord] == null) {
+                missing.add(leaf);
+            }
+        }
+
+        boolean[] timedOut = new boolean[leaves.size()];
+        if (missing.size() == 1) {
+            LeafReaderContext leaf = missing.getFirst();
+            leafHits[leaf.ord] = searchLeaf(searcher, leaf, query, sort, size, timeout,
+                timedOut);
+        } else if (!missing.isEmpty()) {
+            List<CompletableFuture<Void>> futures = new ArrayList<>();
+            for (LeafReaderContext leaf : missing) {
+                futures.add(CompletableFuture.runAsync(() -> {
+                    try {
+                        leafHits[leaf.ord] = searchLeaf(searcher, leaf, query, sort, size,
+                            timeout, timedOut);
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                }, Threads.getCPUExecutor()));
+            }
+            try {
+                CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[0])).join();
+            } catch (CompletionException e) {
+                if (e.getCause() instanceof UncheckedIOException ue) {
+                    throw ue.getCause();
+                } else if (e.getCause() instanceof RuntimeException re) {
+                    throw re;
+                }
+                throw e;
+            }
+        }
+
+        TopFieldDocs[] shardHits = new TopFieldDocs[leaves.size()];
+        boolean anyTimedOut = false;
+        for (LeafReaderContext leaf : leaves) {
+            FieldDoc[] hits = new FieldDoc[leafHits[leaf.ord].hits().length];
+            for (int i = 0; i < hits.length; i++) {
+                FieldDoc hit = leafHits[leaf.ord].hits()[i];
+                hits[i] = new FieldDoc(leaf.docBase + hit.doc, hit.score, hit.fields, leaf.ord);
+            }
+            shardHits[leaf.ord] = new TopFieldDocs(leafHits[leaf.ord].totalHits(), hits,
+                sort.getSort());
+            anyTimedOut |= timedOut[leaf.ord];
+        }
+
+        // Ties are broken by segment then by document, the order of a search over the reader
+        return new SearchResult<>(TopDocs.merge(sort, size, shardHits), anyTimedOut);
+    }
+
+    /**
+     * Returns the cached hits of the segment without the deleted ones, or null if there are not
+     * enough of them left. The total hits are a lower bound once documents have been deleted
+     * since, as each deletion removes at most one match.
+     */
+    private LeafHits getCached(LeafReaderContext leaf, Query query, Sort sort, int size) {
+        IndexReader.CacheHelper cacheHelper = leaf.reader().getCoreCacheHelper();
+        if (cacheHelper == null) {
+            return null;
+        }
+
+        Entry entry;
+        synchronized (this) {
+            entry = entries.get(new Key(cacheHelper.getKey(), query, sort));
+        }
+        if (entry == null || (entry.hits().length < size && !entry.exhausted())) {
+            return null;
+        }
+
+        Bits liveDocs = leaf.reader().getLiveDocs();
+        List<FieldDoc> hits = new ArrayList<>(Math.min(size, entry.hits().length));
+        int liveHits = 0;
+        for (FieldDoc hit : entry.hits()) {
+            if (liveDocs == null || liveDocs.get(hit.doc)) {
+                if (hits.size() < size) {
+                    hits.add(hit);
+                }
+                liveHits++;
+            }
+        }
+        if (hits.size() < size && !entry.exhausted()) {
+            // Too many of the top hits were deleted since
+            return null;
+        }
+
+        TotalHits totalHits = entry.totalHits();
+        int newDeletions = leaf.reader().numDeletedDocs() - entry.numDeletedDocs();
+        if (entry.exhausted()) {
+            // Every match is among the hits
+            totalHits = new TotalHits(liveHits, TotalHits.Relation.EQUAL_TO);
+        } else if (newDeletions > 0) {
+            totalHits = new TotalHits(Math.max(hits.size(), totalHits.value() - newDeletions),
+                TotalHits.Relation.GREATER_THAN_OR_EQUAL_TO);
+        }
+        return new LeafHits(hits.toArray(new FieldDoc[0]), totalHits);
+    }
+
+    private LeafHits searchLeaf(IndexSearcher searcher, LeafReaderContext leaf, Query query,
+        Sort sort, int size, QueryTimeout timeout, boolean[] timedOut) throws IOException {
+        IndexSearcher leafSearcher = new IndexSearcher(leaf.reader());
+        leafSearcher.setSimilarity(searcher.getSimilarity());
+        leafSearcher.setQueryCache(searcher.getQueryCache());
+        leafSearcher.setQueryCachingPolicy(searcher.getQueryCachingPolicy());
+        leafSearcher.setTimeout(timeout);
+
+        TopDocs topDocs = leafSearcher.search(query, size, sort, false);
+        FieldDoc[] hits = new FieldDoc[topDocs.scoreDocs.length];
+        for (int i = 0; i < hits.length; i++) {
+            hits[i] = (FieldDoc) topDocs.scoreDocs[i];
+        }
+
+        if (leafSearcher.timedOut()) {
+            timedOut[leaf.ord] = true;
+        } else {
+            put(leaf, query, sort, new Entry(hits, topDocs.totalHits,
+                leaf.reader().numDeletedDocs(), hits.length < size, ramBytesUsed(hits)));
+        }
+        return new LeafHits(hits, topDocs.totalHits);
+    }
+
+    private void put(LeafReaderContext leaf, Query query, Sort sort, Entry entry) {
+        IndexReader.CacheHelper cacheHelper = leaf.reader().getCoreCacheHelper();
+        if (cacheHelper == null) {
+            return;
+        }
+
+        if (entry.ramBytes() > maxBytes) {
+            return;
+        }
+
+        IndexReader.CacheKey coreKey = cacheHelper.getKey();
+        boolean isNewCore;
+        synchronized (this) {
+            Entry previous = entries.put(new Key(coreKey, query, sort), entry);
+            usedBytes += entry.ramBytes() - (previous == null ? 0 : previous.ramBytes());
+            Iterator<Entry> eldest = entries.values().iterator();
+            while (entries.size() > maxEntries || usedBytes > maxBytes) {
+                usedBytes -= eldest.next().ramBytes();
+                eldest.remove();
+            }
+            isNewCore = listenedCores.add(coreKey);
+        }
+        if (isNewCore) {
+            // Drops the hits of a segment once it is merged away and closed
+            cacheHelper.addClosedListener(this::evict);
+        }
+    }
+
+    private synchronized void evict(IndexReader.CacheKey coreKey) {
+        listenedCores.remove(coreKey);
+        Iterator<Map.Entry<Key, Entry>> iterator = entries.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<Key, Entry> entry = iterator.next();
+            if (entry.getKey().coreKey() == coreKey) {
+                usedBytes -= entry.getValue().ramBytes();
+                iterator.remove();
+            }
+        }
+    }
+
+    /**
+     * Returns the estimated heap of the cached hits.
+     */
+    @Override
+    public synchronized long ramBytesUsed() {
+        return usedBytes;
+    }
+
+    private static long ramBytesUsed(FieldDoc[] hits) {
+        long bytes = ENTRY_BYTES + RamUsageEstimator.shallowSizeOf(hits);
+        for (FieldDoc hit : hits) {
+            bytes += FIELD_DOC_BYTES + RamUsageEstimator.shallowSizeOf(hit.fields);
+            for (Object value : hit.fields) {
+                if (value instanceof BytesRef bytesRef) {
+                    bytes += BYTES_REF_BYTES
+                        + RamUsageEstimator.alignObjectSize(
+                        RamUsageEstimator.NUM_BYTES_ARRAY_HEADER + bytesRef.length);
+                } else if (value != null) {
+                    bytes += RamUsageEstimator.shallowSizeOf(value);
+                }
+            }
+        }
+        return bytes;
+    }
+}
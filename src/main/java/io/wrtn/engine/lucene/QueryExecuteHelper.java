@@ -13,13 +13,22 @@ import io.wrtn.engine.lucene.store.s3.cache.fs.FSCache;
 import io.wrtn.engine.lucene.store.s3.cache.fs.FSCacheConfig;
 import io.wrtn.engine.lucene.store.s3.storage.s3.S3Storage;
 import io.wrtn.engine.lucene.util.DocUtils;
+import io.wrtn.engine.lucene.util.IdLookup;
 import io.wrtn.infra.aws.S3;
 import io.wrtn.model.storage.StorageMetadata;
+import io.wrtn.util.GlobalLogger;
 import io.wrtn.util.PathBuilder;
+import io.wrtn.util.SizeConverter;
+import io.wrtn.util.Threads;
+import java.io.Closeable;
 import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.concurrent.ExecutionException;
 
 import io.wrtn.engine.lucene.index.IndexReaderBuilder;
@@ -29,29 +38,45 @@ import io.wrtn.engine.lucene.store.s3.buffer.fs.FSBufferConfig;
 import io.wrtn.engine.lucene.store.s3.storage.s3.S3StorageConfig;
 
 import io.wrtn.model.document.Document;
+import io.wrtn.model.document.Hit;
 import io.wrtn.model.index.FieldConfig;
 import org.apache.lucene.index.IndexReader;
-import org.apache.lucene.index.Term;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.QueryTimeout;
 import org.apache.lucene.queryparser.flexible.core.QueryNodeException;
 import org.apache.lucene.search.*;
-import org.apache.lucene.search.BooleanClause.Occur;
 import org.apache.lucene.search.similarities.BM25Similarity;
+import org.apache.lucene.store.AlreadyClosedException;
 import org.apache.lucene.store.Directory;
-import io.wrtn.engine.lucene.query.SearchQueryBuilder;
+import org.apache.lucene.util.Accountable;
+import io.wrtn.engine.lucene.query.ParsedQueryCache;
 import io.wrtn.util.GlobalExceptionHandler;
 
-public class QueryExecuteHelper {
+public class QueryExecuteHelper implements Accountable, Closeable {
 
     private final String indexName;
     private final Map<String, FieldConfig> mappings;
+    private final ParsedQueryCache parsedQueries;
+    private final LeafResultCache leafResults;
     private final Directory directory;
-    private IndexReader reader;
-    private IndexSearcher searcher;
     private final S3Storage storage;
     private final FSCache cache;
     private final FSBuffer buffer;
 
-    private String snapshotVersionId;
+    /**
+     * A reader and its searcher over a single storage snapshot.
+     */
+    private record Snapshot(IndexReader reader, IndexSearcher searcher, String versionId) {
+
+    }
+
+    private volatile Snapshot current;
+
+    // Guarded by this
+    private boolean isClosed = false;
+    private CompletableFuture<Void> pendingRefresh;
+    private String pendingVersionId;
+    private long pendingSince;
 
     public QueryExecuteHelper(
         final String projectId,
@@ -63,7 +88,10 @@ public class QueryExecuteHelper {
     ) throws IOException {
         this.indexName = indexName;
         this.mappings = mappings;
-        this.snapshotVersionId = snapshotVersionId;
+        this.parsedQueries = new ParsedQueryCache(mappings,
+            QUERY_EXECUTOR_PARSED_QUERY_CACHE_MAX_ENTRIES);
+        this.leafResults = new LeafResultCache(QUERY_EXECUTOR_LEAF_RESULT_CACHE_MAX_ENTRIES,
+            SizeConverter.mbToB(QUERY_EXECUTOR_LEAF_RESULT_CACHE_MAX_MB));
 
         storage = new S3Storage(new S3StorageConfig(INDEX_BUCKET, s3Client), snapshot);
 
@@ -74,6 +102,10 @@ public class QueryExecuteHelper {
                     FS_TEMP_PATH, projectId, indexName, TEMPORARY_SHARD_ID)),
             storage
         );
+        if (FS_CACHE_PREFETCH_ON_OPEN) {
+            // Download all files in background while the reader is being opened
+            cache.prefetch(Arrays.asList(storage.listAll()));
+        }
 
         // Local FS buffer
         buffer = new FSBuffer(
@@ -83,77 +115,274 @@ public class QueryExecuteHelper {
         );
 
         this.directory = DirectoryBuilder.build(storage, cache, buffer);
-        this.reader = IndexReaderBuilder.build(directory);
-        this.searcher = IndexSearcherBuilder.build(reader, new BM25Similarity());
+        IndexReader reader = IndexReaderBuilder.build(directory);
+        this.current = new Snapshot(reader, IndexSearcherBuilder.build(reader,
+            new BM25Similarity()), snapshotVersionId);
     }
 
-    public void updateIfChanged(StorageMetadata snapshot, String snapshotVersionId)
-        throws IOException {
+    /**
+     * Returns true if the given snapshot is neither served nor being opened.
+     */
+    public synchronized boolean needsSnapshot(String snapshotVersionId) {
+        return !snapshotVersionId.equals(current.versionId())
+            && !snapshotVersionId.equals(pendingVersionId);
+    }
+
+    /**
+     * Opens a reader on the given snapshot in background. Queries keep being served from the
+     * current reader until the new one is swapped in. Refreshes are applied one at a time in
+     * the order they are requested.
+     */
+    public synchronized void updateIfChanged(StorageMetadata snapshot, String snapshotVersionId) {
         Objects.requireNonNull(snapshot);
+        if (!needsSnapshot(snapshotVersionId)) {
+            return;
+        }
+
+        CompletableFuture<Void> refresh;
+        if (pendingRefresh == null) {
+            pendingSince = System.currentTimeMillis();
+            refresh = CompletableFuture.runAsync(() -> refresh(snapshot, snapshotVersionId),
+                Threads.getIOExecutor());
+        } else {
+            refresh = pendingRefresh.handle((v, t) -> null)
+                .thenRunAsync(() -> refresh(snapshot, snapshotVersionId),
+                    Threads.getIOExecutor());
+        }
+        pendingRefresh = refresh;
+        pendingVersionId = snapshotVersionId;
+
+        refresh.whenComplete((v, t) -> onRefreshComplete(refresh, t));
+    }
+
+    private void refresh(StorageMetadata snapshot, String snapshotVersionId) {
+        try {
+            // The old reader has all its files open already, so it does not need the old meta
+            storage.setMeta(snapshot);
+            if (FS_CACHE_PREFETCH_ON_OPEN) {
+                cache.prefetch(Arrays.asList(storage.listAll()));
+            }
+
+            Snapshot old = current;
+            IndexReader updatedReader = IndexReaderBuilder.build(old.reader());
+            synchronized (this) {
+                if (isClosed) {
+                    if (updatedReader != old.reader()) {
+                        updatedReader.close();
+                    }
+                    return;
+                }
+
+                if (updatedReader == old.reader()) {
+                    current = new Snapshot(old.reader(), old.searcher(), snapshotVersionId);
+                } else {
+                    current = new Snapshot(updatedReader,
+                        IndexSearcherBuilder.build(updatedReader, new BM25Similarity()),
+                        snapshotVersionId);
+                    // Closed once the queries still running on it release it
+                    old.reader().decRef();
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private synchronized void onRefreshComplete(CompletableFuture<Void> refresh, Throwable t) {
+        if (t != null) {
+            GlobalLogger.error("Failed to refresh " + indexName + ": " + t);
+        }
+        if (pendingRefresh == refresh) {
+            pendingRefresh = null;
+            pendingVersionId = null;
+        }
+    }
+
+    /**
+     * Waits for the pending refresh if the request requires the given snapshot, or if the current
+     * snapshot has been stale for longer than QUERY_EXECUTOR_MAX_STALENESS_MS. Note that Lambda
+     * freezes the process between invocations, so a refresh only progresses while requests are
+     * served.
+     */
+    public void awaitSnapshot(String snapshotVersionId, boolean consistentRead)
+        throws IOException {
+        CompletableFuture<Void> refresh;
+        synchronized (this) {
+            if (snapshotVersionId.equals(current.versionId()) || pendingRefresh == null) {
+                return;
+            }
+            if (!consistentRead
+                && System.currentTimeMillis() - pendingSince < QUERY_EXECUTOR_MAX_STALENESS_MS) {
+                return;
+            }
+            refresh = pendingRefresh;
+        }
 
-        this.snapshotVersionId = snapshotVersionId;
-        storage.setMeta(snapshot);
+        try {
+            refresh.join();
+        } catch (CompletionException e) {
+            throw new IOException("Failed to open snapshot " + snapshotVersionId, e.getCause());
+        }
+    }
 
-        IndexReader updatedReader = IndexReaderBuilder.build(reader);
-        if (updatedReader != reader) {
-            if (reader != null) {
-                reader.close();
+    private Snapshot acquireSnapshot() {
+        while (true) {
+            Snapshot snapshot = current;
+            if (snapshot.reader().tryIncRef()) {
+                return snapshot;
+            }
+            // The snapshot was swapped and closed in between, retry with the new one
+            if (snapshot == current) {
+                throw new AlreadyClosedException("QueryExecuteHelper is closed: " + indexName);
             }
-            reader = updatedReader;
         }
+    }
+
+    /**
+     * Runs a query, collecting until the timeout if any. The documents collected so far are
+     * returned if it expires.
+     */
+    public SearchResult<Document[]> query(JsonObject jsonQuery, int size, boolean includeVectors,
+        JsonArray sortArray, boolean trackScores, String[] fields, QueryTimeout timeout)
+        throws IOException, QueryNodeException, GlobalExceptionHandler, InterruptedException, ExecutionException {
 
-        searcher = IndexSearcherBuilder.build(reader, new BM25Similarity());
+        Snapshot snapshot = acquireSnapshot();
+        try {
+            IndexSearcher searcher = buildSearcher(snapshot, timeout);
+            TopDocs topDocs;
+            Query query;
+            if (sortArray == null || sortArray.isEmpty()) {
+                query = parsedQueries.get(jsonQuery);
+                topDocs = searcher.search(query, size);
+                return new SearchResult<>(fetchDocuments(topDocs, includeVectors, true, fields,
+                    searcher).toArray(new Document[0]), searcher.timedOut());
+            } else {
+                query = jsonQuery == null ? new MatchAllDocsQuery()
+                    : parsedQueries.get(jsonQuery);
+                Sort sort = SortBuilder.build(sortArray, mappings);
+                SearchResult<TopDocs> result = searchSorted(searcher, query, size, sort,
+                    trackScores, timeout);
+                return new SearchResult<>(fetchDocuments(result.results(), includeVectors,
+                    trackScores, fields, searcher).toArray(new Document[0]), result.timedOut());
+            }
+        } finally {
+            snapshot.reader().decRef();
+        }
     }
 
-    public Document[] query(JsonObject jsonQuery, int size, boolean includeVectors,
-        JsonArray sortArray, boolean trackScores, String[] fields)
+    /**
+     * Runs the query phase only: the ids, scores and sort values of the top documents, to be
+     * merged with the hits of the other compute nodes before the winners are fetched.
+     */
+    public SearchResult<Hit[]> queryHits(JsonObject jsonQuery, int size, JsonArray sortArray,
+        boolean trackScores, QueryTimeout timeout)
         throws IOException, QueryNodeException, GlobalExceptionHandler, InterruptedException, ExecutionException {
 
-        TopDocs topDocs;
-        Query query;
-        if (sortArray == null || sortArray.isEmpty()) {
-            query = SearchQueryBuilder.build(jsonQuery, mappings);
-            topDocs = searcher.search(query, size);
-            return fetchDocuments(topDocs, includeVectors, true, fields).toArray(new Document[0]);
-        } else {
-            query = jsonQuery == null ? new MatchAllDocsQuery()
-                : SearchQueryBuilder.build(jsonQuery, mappings);
-            Sort sort = SortBuilder.build(sortArray, mappings);
-            topDocs = searcher.search(query, size, sort, trackScores);
-            return fetchDocuments(topDocs, includeVectors, trackScores, fields).toArray(
-                new Document[0]);
+        Snapshot snapshot = acquireSnapshot();
+        try {
+            IndexSearcher searcher = buildSearcher(snapshot, timeout);
+            TopDocs topDocs;
+            Query query;
+            if (sortArray == null || sortArray.isEmpty()) {
+                query = parsedQueries.get(jsonQuery);
+                topDocs = searcher.search(query, size);
+                return new SearchResult<>(DocUtils.buildHits(topDocs, true, searcher)
+                    .toArray(new Hit[0]), searcher.timedOut());
+            } else {
+                query = jsonQuery == null ? new MatchAllDocsQuery()
+                    : parsedQueries.get(jsonQuery);
+                Sort sort = SortBuilder.build(sortArray, mappings);
+                SearchResult<TopDocs> result = searchSorted(searcher, query, size, sort,
+                    trackScores, timeout);
+                return new SearchResult<>(DocUtils.buildHits(result.results(), trackScores,
+                    searcher).toArray(new Hit[0]), result.timedOut());
+            }
+        } finally {
+            snapshot.reader().decRef();
         }
     }
 
+    /**
+     * Searches with the hits cached per segment when the query allows it.
+     */
+    private SearchResult<TopDocs> searchSorted(IndexSearcher searcher, Query query, int size,
+        Sort sort, boolean trackScores, QueryTimeout timeout) throws IOException {
+        if (leafResults.isCacheable(query, sort, trackScores)) {
+            SearchResult<TopFieldDocs> result = leafResults.search(searcher, query, sort, size,
+                timeout);
+            return new SearchResult<>(result.results(), result.timedOut());
+        }
+        TopDocs topDocs = searcher.search(query, size, sort, trackScores);
+        return new SearchResult<>(topDocs, searcher.timedOut());
+    }
+
+    /**
+     * Returns the searcher of the snapshot, or a searcher of its own if the search is time limited
+     * since the timeout is a property of the searcher.
+     */
+    private static IndexSearcher buildSearcher(Snapshot snapshot, QueryTimeout timeout) {
+        if (timeout == null) {
+            return snapshot.searcher();
+        }
+        IndexSearcher searcher = IndexSearcherBuilder.build(snapshot.reader(),
+            snapshot.searcher().getSimilarity());
+        searcher.setTimeout(timeout);
+        return searcher;
+    }
+
     public Document[] fetch(String[] fetchIds, boolean includeVectors, String[] fields)
         throws IOException, GlobalExceptionHandler {
 
-        BooleanQuery.Builder builder = new BooleanQuery.Builder();
-        Term prototype = new Term(DOC_FIELD_ID, "");
+        Snapshot snapshot = acquireSnapshot();
+        try {
+            IndexSearcher searcher = snapshot.searcher();
+            TopDocs topDocs = IdLookup.lookup(snapshot.reader(), fetchIds);
 
-        for (String id : fetchIds) {
-            Term currentTerm = new Term(prototype.field(), id);
-            builder.add(new TermQuery(currentTerm), Occur.SHOULD);
+            return fetchDocuments(topDocs, includeVectors, false, fields, searcher).toArray(
+                new Document[0]);
+        } finally {
+            snapshot.reader().decRef();
         }
-        Query fetchQuery = builder.build();
-        TopDocs topDocs = searcher.search(fetchQuery, fetchIds.length);
+    }
 
-        return fetchDocuments(topDocs, includeVectors, false, fields).toArray(new Document[0]);
+    /**
+     * Estimates the heap held by this helper: the file contents kept in the storage metadata, the
+     * cached hits of segments, and the heap of each segment reader. Files read from storage live
+     * on local disk, bounded by the budget of the FS cache, and are not counted.
+     */
+    @Override
+    public long ramBytesUsed() {
+        long bytes = storage.getHeapSize() + leafResults.ramBytesUsed();
+        for (LeafReaderContext leaf : current.reader().leaves()) {
+            bytes += SEGMENT_READER_HEAP_BYTES
+                + (long) leaf.reader().maxDoc() * SEGMENT_READER_HEAP_BITS_PER_DOC / Byte.SIZE;
+        }
+        return bytes;
     }
 
+    @Override
     public void close() throws IOException {
-        reader.close();
+        CompletableFuture<Void> refresh;
+        synchronized (this) {
+            isClosed = true;
+            refresh = pendingRefresh;
+        }
+        if (refresh != null) {
+            // The refresh still uses the storage and the cache
+            refresh.handle((v, t) -> null).join();
+        }
+        current.reader().decRef();
         directory.close();
         cache.close();
         buffer.close();
     }
 
     public String getSnapshotVersionId() {
-        return snapshotVersionId;
+        return current.versionId();
     }
 
     private List<Document> fetchDocuments(TopDocs topDocs, boolean includeVectors,
-        boolean includeScores, String[] fields) throws IOException {
+        boolean includeScores, String[] fields, IndexSearcher searcher) throws IOException {
         return DocUtils.fetchDocuments(
             topDocs, includeVectors, includeScores, fields, searcher, indexName);
     }
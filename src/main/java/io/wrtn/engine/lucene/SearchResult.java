@@ -0,0 +1,8 @@
+package io.wrtn.engine.lucene;
+
+/**
+ * Results of a search, which are partial if the search ran out of time.
+ */
+public record SearchResult<T>(T results, boolean timedOut) {
+
+}
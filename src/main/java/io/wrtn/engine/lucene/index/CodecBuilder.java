@@ -0,0 +1,35 @@
+package io.wrtn.engine.lucene.index;
+
+import static io.wrtn.engine.lucene.Constants.DOC_FIELD_ID;
+import static io.wrtn.util.Constants.Config.INDEX_ID_BLOOM_FILTER;
+
+import org.apache.lucene.codecs.Codec;
+import org.apache.lucene.codecs.PostingsFormat;
+import org.apache.lucene.codecs.bloom.BloomFilteringPostingsFormat;
+import org.apache.lucene.codecs.lucene101.Lucene101Codec;
+import org.apache.lucene.codecs.lucene101.Lucene101PostingsFormat;
+
+public final class CodecBuilder {
+
+    private static final PostingsFormat ID_POSTINGS_FORMAT = new BloomFilteringPostingsFormat(
+        new Lucene101PostingsFormat());
+
+    /**
+     * Builds the default codec with a bloom filter on the id terms of each segment, so that
+     * looking up an id missing from a segment, as most are, skips its terms dictionary. This
+     * applies to the deletes of updates and to fetches. The codec keeps the name of the default
+     * one: the postings format is recorded per field and resolved by name when reading.
+     */
+    public static Codec build() {
+        if (!INDEX_ID_BLOOM_FILTER) {
+            return Codec.getDefault();
+        }
+        return new Lucene101Codec() {
+            @Override
+            public PostingsFormat getPostingsFormatForField(String field) {
+                return DOC_FIELD_ID.equals(field) ? ID_POSTINGS_FORMAT
+                    : super.getPostingsFormatForField(field);
+            }
+        };
+    }
+}
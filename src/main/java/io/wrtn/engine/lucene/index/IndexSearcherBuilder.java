@@ -1,8 +1,12 @@
 package io.wrtn.engine.lucene.index;
 
 import static io.wrtn.engine.lucene.Constants.DEFAULT_MAX_CLAUSE_COUNT;
+import static io.wrtn.util.Constants.Config.SEARCH_SLICE_MAX_DOCS;
+import static io.wrtn.util.Constants.Config.SEARCH_SLICE_MAX_SEGMENTS;
 
+import java.util.List;
 import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.LeafReaderContext;
 import org.apache.lucene.search.IndexSearcher;
 import org.apache.lucene.search.similarities.Similarity;
 import io.wrtn.util.Threads;
@@ -17,9 +21,22 @@ public final class IndexSearcherBuilder {
         return new IndexSearcher(reader);
     }
 
+    /**
+     * Builds a searcher which searches slices of segments concurrently on the CPU executor. A
+     * slice groups small segments up to SEARCH_SLICE_MAX_DOCS documents or
+     * SEARCH_SLICE_MAX_SEGMENTS segments. Filters are cached in the shared query cache.
+     */
     public static IndexSearcher build(IndexReader reader, Similarity similarity) {
-        IndexSearcher searcher = new IndexSearcher(reader, Threads.getIOExecutor());
+        IndexSearcher searcher = new IndexSearcher(reader,
+            Threads.getNumCPUThreads() > 1 ? Threads.getCPUExecutor() : null) {
+            @Override
+            protected LeafSlice[] slices(List<LeafReaderContext> leaves) {
+                return slices(leaves, SEARCH_SLICE_MAX_DOCS, SEARCH_SLICE_MAX_SEGMENTS, false);
+            }
+        };
         searcher.setSimilarity(similarity);
+        searcher.setQueryCache(SharedQueryCache.getQueryCache());
+        searcher.setQueryCachingPolicy(SharedQueryCache.getCachingPolicy());
         return searcher;
     }
 }
@@ -26,6 +26,7 @@ public final class IndexWriterBuilder {
         // IndexWriterConfig
         IndexWriterConfig indexWriterConfig = new IndexWriterConfig(aWrapper);
         indexWriterConfig.setOpenMode(OpenMode.CREATE_OR_APPEND);
+        indexWriterConfig.setCodec(CodecBuilder.build());
 
         return new IndexWriter(directory, indexWriterConfig);
     }
@@ -0,0 +1,91 @@
+package io.wrtn.engine.lucene.index;
+
+import static io.wrtn.util.Constants.Config.QUERY_CACHE_MIN_SEGMENT_DOCS;
+import static io.wrtn.util.Constants.Config.QUERY_CACHE_SIZE_MB;
+import static io.wrtn.util.Constants.Config.QUERY_CACHE_TERM_MIN_FREQUENCY;
+
+import java.io.IOException;
+import org.apache.lucene.search.LRUQueryCache;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.QueryCachingPolicy;
+import org.apache.lucene.search.TermQuery;
+import org.apache.lucene.search.UsageTrackingQueryCachingPolicy;
+import org.apache.lucene.util.FrequencyTrackingRingBuffer;
+
+/**
+ * The filter cache shared by the searchers of every index served by the container, within a
+ * single memory budget. Entries are kept per segment core, so a segment carried over by a
+ * reopened reader keeps its cached filters, and the entries of a segment are dropped once the
+ * last reader using it is closed.
+ */
+public final class SharedQueryCache {
+
+    public record Stats(long hits, long misses, long cachedQueries, long evictions,
+                        long usedBytes) {
+
+    }
+
+    private static final int MAX_QUERIES = 10000;
+    // Same as LRUQueryCache: not worth caching if the filter costs much more than the query
+    private static final float SKIP_CACHE_FACTOR = 10f;
+
+    private static final LRUQueryCache queryCache = new LRUQueryCache(MAX_QUERIES,
+        QUERY_CACHE_SIZE_MB > 0 ? QUERY_CACHE_SIZE_MB * 1024L * 1024L
+            : Math.min(32L * 1024 * 1024, Runtime.getRuntime().maxMemory() / 20),
+        leaf -> leaf.reader().maxDoc() >= QUERY_CACHE_MIN_SEGMENT_DOCS, SKIP_CACHE_FACTOR);
+
+    private static final QueryCachingPolicy cachingPolicy = new FilterCachingPolicy();
+
+    public static LRUQueryCache getQueryCache() {
+        return queryCache;
+    }
+
+    public static QueryCachingPolicy getCachingPolicy() {
+        return cachingPolicy;
+    }
+
+    public static Stats getStats() {
+        return new Stats(queryCache.getHitCount(), queryCache.getMissCount(),
+            queryCache.getCacheSize(), queryCache.getEvictionCount(), queryCache.ramBytesUsed());
+    }
+
+    /**
+     * Caches term filters, such as a tenant or a category, once they are used a few times.
+     * Lucene never caches a term query since its postings are nearly as fast to iterate as a
+     * bitset, but the filters of kNN queries and of repeated bool queries are applied on every
+     * query. Other queries follow UsageTrackingQueryCachingPolicy.
+     */
+    private static final class FilterCachingPolicy implements QueryCachingPolicy {
+
+        private static final int HISTORY_SIZE = 256;
+
+        private final UsageTrackingQueryCachingPolicy delegate =
+            new UsageTrackingQueryCachingPolicy(HISTORY_SIZE);
+
+        // Guarded by this
+        private final FrequencyTrackingRingBuffer recentTermFilters =
+            new FrequencyTrackingRingBuffer(HISTORY_SIZE, Integer.MIN_VALUE);
+
+        @Override
+        public void onUse(Query query) {
+            if (query instanceof TermQuery) {
+                synchronized (this) {
+                    recentTermFilters.add(query.hashCode());
+                }
+            } else {
+                delegate.onUse(query);
+            }
+        }
+
+        @Override
+        public boolean shouldCache(Query query) throws IOException {
+            if (query instanceof TermQuery) {
+                synchronized (this) {
+                    return recentTermFilters.frequency(query.hashCode())
+                        >= QUERY_CACHE_TERM_MIN_FREQUENCY;
+                }
+            }
+            return delegate.shouldCache(query);
+        }
+    }
+}
@@ -0,0 +1,103 @@
+package io.wrtn.engine.lucene.query;
+
+import static io.wrtn.engine.lucene.Constants.DATA_TYPE_DATETIME;
+import static io.wrtn.engine.lucene.Constants.DATA_TYPE_DOUBLE;
+import static io.wrtn.engine.lucene.Constants.DATA_TYPE_LONG;
+import static io.wrtn.engine.lucene.Constants.DATA_TYPE_OBJECT;
+import static io.wrtn.engine.lucene.Constants.NESTED_FIELD_DELIMITER;
+
+import io.wrtn.engine.lucene.analysis.AnalyzerBuilder;
+import io.wrtn.model.index.FieldConfig;
+import io.wrtn.util.GlobalExceptionHandler;
+import java.text.DecimalFormat;
+import java.util.HashMap;
+import java.util.Map;
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.miscellaneous.PerFieldAnalyzerWrapper;
+import org.apache.lucene.analysis.standard.StandardAnalyzer;
+import org.apache.lucene.queryparser.flexible.standard.config.PointsConfig;
+import org.apache.lucene.util.WeakIdentityMap;
+
+/**
+ * What query building derives from the mappings of an index: the analyzers, the points config
+ * of the numeric fields and the field configs by full field name. Compiled once per mappings
+ * instance, which lives as long as the index is served.
+ */
+public final class CompiledMappings {
+
+    private static final Analyzer defaultAnalyzer = new StandardAnalyzer();
+    private static final PointsConfig longPointsConfig = new PointsConfig(new DecimalFormat(),
+        Long.class);
+    private static final PointsConfig doublePointsConfig = new PointsConfig(new DecimalFormat(),
+        Double.class);
+
+    private static final WeakIdentityMap<Map<String, FieldConfig>, CompiledMappings> compiled =
+        WeakIdentityMap.newConcurrentHashMap();
+
+    private final Map<String, Analyzer> perFieldAnalyzers;
+    private final PerFieldAnalyzerWrapper analyzer;
+    private final Map<String, PointsConfig> pointsConfigMap;
+    private final Map<String, FieldConfig> fields;
+
+    private CompiledMappings(Map<String, FieldConfig> mappings) throws GlobalExceptionHandler {
+        this.perFieldAnalyzers = AnalyzerBuilder.build(mappings);
+        this.analyzer = new PerFieldAnalyzerWrapper(defaultAnalyzer, perFieldAnalyzers);
+
+        this.pointsConfigMap = new HashMap<>();
+        for (Map.Entry<String, FieldConfig> entry : mappings.entrySet()) {
+            FieldConfig fieldConfig = entry.getValue();
+            if (fieldConfig.getType().equals(DATA_TYPE_LONG) || fieldConfig.getType()
+                .equals(DATA_TYPE_DATETIME)) {
+                pointsConfigMap.put(entry.getKey(), longPointsConfig);
+            } else if (fieldConfig.getType().equals(DATA_TYPE_DOUBLE)) {
+                pointsConfigMap.put(entry.getKey(), doublePointsConfig);
+            }
+        }
+
+        this.fields = new HashMap<>();
+        addFields(mappings, "");
+    }
+
+    public static CompiledMappings of(Map<String, FieldConfig> mappings)
+        throws GlobalExceptionHandler {
+        CompiledMappings compiledMappings = compiled.get(mappings);
+        if (compiledMappings == null) {
+            // Compiling twice on a race is harmless
+            compiledMappings = new CompiledMappings(mappings);
+            compiled.put(mappings, compiledMappings);
+        }
+        return compiledMappings;
+    }
+
+    public Map<String, Analyzer> getPerFieldAnalyzers() {
+        return perFieldAnalyzers;
+    }
+
+    public Analyzer getAnalyzer() {
+        return analyzer;
+    }
+
+    public Map<String, PointsConfig> getPointsConfigMap() {
+        return pointsConfigMap;
+    }
+
+    /**
+     * Returns the config of a field by its full name, nested names joined by the delimiter, or
+     * null if it is not mapped.
+     */
+    public FieldConfig getField(String fieldName) {
+        return fields.get(fieldName);
+    }
+
+    private void addFields(Map<String, FieldConfig> mappings, String parentKey) {
+        for (Map.Entry<String, FieldConfig> entry : mappings.entrySet()) {
+            String fullFieldName = parentKey.isEmpty() ? entry.getKey()
+                : parentKey + NESTED_FIELD_DELIMITER + entry.getKey();
+            fields.put(fullFieldName, entry.getValue());
+            if (entry.getValue().getType().equals(DATA_TYPE_OBJECT)
+                && entry.getValue().getObjectMapping() != null) {
+                addFields(entry.getValue().getObjectMapping(), fullFieldName);
+            }
+        }
+    }
+}
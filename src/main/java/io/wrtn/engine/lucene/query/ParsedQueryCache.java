@@ -0,0 +1,58 @@
+package io.wrtn.engine.lucene.query;
+
+import com.google.gson.JsonObject;
+import io.wrtn.model.index.FieldConfig;
+import io.wrtn.util.GlobalExceptionHandler;
+import io.wrtn.util.JsonParser;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import org.apache.lucene.queryparser.flexible.core.QueryNodeException;
+import org.apache.lucene.search.Query;
+
+/**
+ * Caches the Lucene queries built from the most recently used JSON queries of an index, so that
+ * a repeated query is not parsed again. Queries are immutable and shared between searches.
+ */
+public final class ParsedQueryCache {
+
+    private final Map<String, FieldConfig> mappings;
+    private final int maxEntries;
+
+    // Guarded by this
+    private final Map<String, Query> queries;
+
+    public ParsedQueryCache(Map<String, FieldConfig> mappings, int maxEntries) {
+        this.mappings = mappings;
+        this.maxEntries = maxEntries;
+        this.queries = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Query> eldest) {
+                return size() > ParsedQueryCache.this.maxEntries;
+            }
+        };
+    }
+
+    /**
+     * Returns the query built from the JSON query with the mappings of the index.
+     */
+    public Query get(JsonObject jsonQuery)
+        throws QueryNodeException, GlobalExceptionHandler {
+        if (maxEntries <= 0 || jsonQuery == null) {
+            return SearchQueryBuilder.build(jsonQuery, mappings);
+        }
+
+        String key = JsonParser.normalize(jsonQuery);
+        synchronized (this) {
+            Query query = queries.get(key);
+            if (query != null) {
+                return query;
+            }
+        }
+
+        Query query = SearchQueryBuilder.build(jsonQuery, mappings);
+        synchronized (this) {
+            queries.put(key, query);
+        }
+        return query;
+    }
+}
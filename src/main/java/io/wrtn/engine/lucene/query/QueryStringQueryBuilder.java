@@ -4,37 +4,28 @@ import com.google.gson.JsonObject;
 
 import io.wrtn.util.GlobalLogger;
 import io.wrtn.util.StatusCode;
-import java.text.DecimalFormat;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
 import io.wrtn.model.index.FieldConfig;
 import java.util.Objects;
-import org.apache.lucene.analysis.Analyzer;
-import org.apache.lucene.analysis.miscellaneous.PerFieldAnalyzerWrapper;
-import org.apache.lucene.analysis.standard.StandardAnalyzer;
 import org.apache.lucene.queryparser.flexible.core.QueryNodeException;
 import org.apache.lucene.queryparser.flexible.core.nodes.FieldQueryNode;
+import org.apache.lucene.queryparser.flexible.core.nodes.GroupQueryNode;
 import org.apache.lucene.queryparser.flexible.core.nodes.OrQueryNode;
 import org.apache.lucene.queryparser.flexible.core.nodes.QueryNode;
 import org.apache.lucene.queryparser.flexible.core.parser.EscapeQuerySyntax;
 import org.apache.lucene.queryparser.flexible.standard.StandardQueryParser;
-import org.apache.lucene.queryparser.flexible.standard.config.PointsConfig;
 import org.apache.lucene.queryparser.flexible.standard.nodes.TermRangeQueryNode;
-import org.apache.lucene.queryparser.flexible.standard.parser.EscapeQuerySyntaxImpl;
 import org.apache.lucene.queryparser.flexible.standard.parser.StandardSyntaxParser;
 import org.apache.lucene.search.IndexSearcher.TooManyClauses;
 import org.apache.lucene.search.MatchAllDocsQuery;
 import org.apache.lucene.search.Query;
-import io.wrtn.engine.lucene.analysis.AnalyzerBuilder;
 import io.wrtn.util.GlobalExceptionHandler;
 
 import static io.wrtn.engine.lucene.Constants.DATA_TYPE_DATETIME;
-import static io.wrtn.engine.lucene.Constants.DATA_TYPE_DOUBLE;
-import static io.wrtn.engine.lucene.Constants.DATA_TYPE_LONG;
 import static io.wrtn.engine.lucene.Constants.DATA_TYPE_TEXT;
 import static io.wrtn.engine.lucene.Constants.DEFAULT_MAX_CLAUSE_COUNT;
 import static io.wrtn.engine.lucene.Constants.NESTED_FIELD_DELIMITER;
@@ -55,12 +46,6 @@ import static io.wrtn.util.TimeUtil.stringToTime;
 public final class QueryStringQueryBuilder {
 
     private static final StandardSyntaxParser syntaxParser = new StandardSyntaxParser();
-    private static final Analyzer defaultAnalyzer = new StandardAnalyzer();
-    private static final EscapeQuerySyntaxImpl escapeQuerySyntax = new EscapeQuerySyntaxImpl();
-    private static final PointsConfig longPointsConfig = new PointsConfig(new DecimalFormat(),
-        Long.class);
-    private static final PointsConfig doublePointsConfig = new PointsConfig(new DecimalFormat(),
-        Double.class);
 
     public static Query build(final JsonObject queryStringObject,
         final Map<String, FieldConfig> mappings) throws QueryNodeException, GlobalExceptionHandler {
@@ -79,9 +64,7 @@ public final class QueryStringQueryBuilder {
 
             String defaultField = (queryStringObject.has(QUERY_PARAM_DEFAULT_FIELD)) ?
                 queryStringObject.get(QUERY_PARAM_DEFAULT_FIELD).getAsString() : null;
-            Map<String, Analyzer> perFieldAnalyzers = AnalyzerBuilder.build(mappings);
-            PerFieldAnalyzerWrapper perFieldAnalyzerWrapper = new PerFieldAnalyzerWrapper(
-                defaultAnalyzer, perFieldAnalyzers);
+            CompiledMappings compiledMappings = CompiledMappings.of(mappings);
 
             if (queryStringObject.has(QUERY_PARAM_SKIP_SYNTAX)) {
                 if (queryStringObject.get(QUERY_PARAM_SKIP_SYNTAX).getAsBoolean()) {
@@ -90,35 +73,22 @@ public final class QueryStringQueryBuilder {
                             "default field is required when skipSyntax is true",
                             StatusCode.INVALID_INPUT_VALUE);
                     } else {
-                        return MatchQueryBuilder.build(perFieldAnalyzers, defaultField,
-                            queryString);
+                        return MatchQueryBuilder.build(compiledMappings.getPerFieldAnalyzers(),
+                            defaultField, queryString);
                     }
                 }
             }
 
             QueryNode queryTree = rewriteQueryTree(syntaxParser.parse(queryString, defaultField),
-                mappings, defaultField);
+                mappings, compiledMappings, defaultField);
 
-            StandardQueryParser parser = new StandardQueryParser(perFieldAnalyzerWrapper);
+            StandardQueryParser parser = new StandardQueryParser(compiledMappings.getAnalyzer());
             parser.setAllowLeadingWildcard(true);
+            parser.setPointsConfigMap(compiledMappings.getPointsConfigMap());
 
-            Map<String, PointsConfig> pointsConfigMap = new HashMap<>();
-            for (Map.Entry<String, FieldConfig> entry : mappings.entrySet()) {
-                FieldConfig fieldConfig = entry.getValue();
-                if (fieldConfig.getType().equals(DATA_TYPE_LONG) || fieldConfig.getType()
-                    .equals(DATA_TYPE_DATETIME)) {
-                    pointsConfigMap.put(entry.getKey(),
-                        longPointsConfig);
-                } else if (fieldConfig.getType().equals(DATA_TYPE_DOUBLE)) {
-                    pointsConfigMap.put(entry.getKey(),
-                        doublePointsConfig);
-                }
-            }
-            parser.setPointsConfigMap(pointsConfigMap);
-
-            Query queryStringQuery = parser.parse(
-                (String) queryTree.toQueryString(escapeQuerySyntax),
-                defaultField);
+            // Build the rewritten tree as is rather than parsing its query string again
+            Query queryStringQuery = (Query) parser.getQueryBuilder().build(
+                parser.getQueryNodeProcessor().process(queryTree));
 
             return BoostQueryBuilder.build(queryStringQuery, queryStringObject);
         } catch (QueryNodeException e) {
@@ -140,11 +110,12 @@ public final class QueryStringQueryBuilder {
     }
 
     private static QueryNode rewriteQueryTree(QueryNode node,
-        final Map<String, FieldConfig> mappings, String defaultField)
-        throws GlobalExceptionHandler {
+        final Map<String, FieldConfig> mappings, CompiledMappings compiledMappings,
+        String defaultField) throws GlobalExceptionHandler {
 
         if (node instanceof FieldQueryNode) {
-            return rewriteFieldQueryNode((FieldQueryNode) node, mappings, defaultField);
+            return rewriteFieldQueryNode((FieldQueryNode) node, mappings, compiledMappings,
+                defaultField);
 
         } else if (node instanceof TermRangeQueryNode) {
             return rewriteRangeQueryNode((TermRangeQueryNode) node, mappings);
@@ -152,7 +123,8 @@ public final class QueryStringQueryBuilder {
         } else if (node.getChildren() != null) {
             List<QueryNode> newChildren = new ArrayList<>();
             for (QueryNode childNode : node.getChildren()) {
-                newChildren.add(rewriteQueryTree(childNode, mappings, defaultField));
+                newChildren.add(rewriteQueryTree(childNode, mappings, compiledMappings,
+                    defaultField));
             }
             node.set(newChildren);
         }
@@ -161,11 +133,43 @@ public final class QueryStringQueryBuilder {
     }
 
     private static QueryNode rewriteFieldQueryNode(FieldQueryNode node,
-        final Map<String, FieldConfig> mappings, String defaultField)
-        throws GlobalExceptionHandler {
+        final Map<String, FieldConfig> mappings, CompiledMappings compiledMappings,
+        String defaultField) throws GlobalExceptionHandler {
 
         String fieldName = node.getFieldAsString();
 
+        FieldConfig mappedFields = compiledMappings.getField(fieldName);
+        if (mappedFields == null) {
+            mappedFields = findFieldConfig(fieldName, mappings, defaultField);
+        }
+
+        // If defaultField exists, treat ':' as space when field not in mappings. else, throw NullPointerException
+        if (mappedFields == null) {
+            return new FieldQueryNode(defaultField, fieldName + " " + node.getTextAsString(),
+                node.getBegin(),
+                node.getEnd());
+        } else if (mappedFields.getType().equals(DATA_TYPE_TEXT)) {
+            List<QueryNode> orNodes = new ArrayList<>();
+            for (String mappedAnalyzer : mappedFields.getAnalyzers()) {
+                String mappedFieldName = fieldName + NESTED_FIELD_DELIMITER + mappedAnalyzer;
+                orNodes.add(
+                    new FieldQueryNode(mappedFieldName, node.getTextAsString(), node.getBegin(),
+                        node.getEnd()));
+            }
+            // Grouped as in its query string, so that it stays one clause of the enclosing query
+            return new GroupQueryNode(new OrQueryNode(orNodes));
+        }
+        return node;
+    }
+
+    /**
+     * Walks the mappings for a field missing from the compiled ones, which fails unless a default
+     * field is given.
+     */
+    private static FieldConfig findFieldConfig(String fieldName,
+        final Map<String, FieldConfig> mappings, String defaultField)
+        throws GlobalExceptionHandler {
+
         FieldConfig mappedFields;
         try {
             if (fieldName.contains(NESTED_FIELD_DELIMITER)) {
@@ -200,22 +204,7 @@ public final class QueryStringQueryBuilder {
                 StatusCode.INVALID_INPUT_VALUE);
         }
 
-        // If defaultField exists, treat ':' as space when field not in mappings. else, throw NullPointerException
-        if (mappedFields == null) {
-            return new FieldQueryNode(defaultField, fieldName + " " + node.getTextAsString(),
-                node.getBegin(),
-                node.getEnd());
-        } else if (mappedFields.getType().equals(DATA_TYPE_TEXT)) {
-            List<QueryNode> orNodes = new ArrayList<>();
-            for (String mappedAnalyzer : mappedFields.getAnalyzers()) {
-                String mappedFieldName = fieldName + NESTED_FIELD_DELIMITER + mappedAnalyzer;
-                orNodes.add(
-                    new FieldQueryNode(mappedFieldName, node.getTextAsString(), node.getBegin(),
-                        node.getEnd()));
-            }
-            return new OrQueryNode(orNodes);
-        }
-        return node;
+        return mappedFields;
     }
 
     private static TermRangeQueryNode rewriteRangeQueryNode(TermRangeQueryNode node,
@@ -3,6 +3,7 @@ package io.wrtn.engine.lucene.store.s3;
 import io.wrtn.engine.lucene.store.s3.buffer.fs.FSBuffer;
 import io.wrtn.engine.lucene.store.s3.cache.fs.FSCache;
 import io.wrtn.engine.lucene.store.s3.storage.s3.S3Storage;
+import io.wrtn.util.SizeConverter;
 import java.io.IOException;
 import java.nio.file.*;
 import java.util.*;
@@ -13,6 +14,9 @@ import java.util.stream.Stream;
 import io.wrtn.engine.lucene.store.s3.lock.NoopLock;
 import org.apache.lucene.store.*;
 
+import static io.wrtn.util.Constants.Config.S3_MULTIPART_MAX_INFLIGHT_PARTS;
+import static io.wrtn.util.Constants.Config.S3_MULTIPART_OUTPUT_THRESHOLD_MB;
+import static io.wrtn.util.Constants.Config.S3_MULTIPART_PART_SIZE_MB;
 import static org.apache.lucene.index.IndexFileNames.PENDING_SEGMENTS;
 
 /**
@@ -97,10 +101,23 @@ public class S3Directory extends Directory {
     @Override
     public IndexOutput createOutput(final String name, final IOContext context) throws IOException {
         ensureOpen();
+        if (isLargeMerge(context)) {
+            // Stream large merged files straight to storage, they are never buffered locally.
+            // Each file is uploaded once its output is closed, so sync skips it.
+            return storage.createMultipartOutput(name,
+                (int) SizeConverter.mbToB(S3_MULTIPART_PART_SIZE_MB),
+                S3_MULTIPART_MAX_INFLIGHT_PARTS);
+        }
         bufferedFileMap.add(name);
         return buffer.createOutput(name, context, false);
     }
 
+    private static boolean isLargeMerge(final IOContext context) {
+        return context.context() == IOContext.Context.MERGE
+            && context.mergeInfo().estimatedMergeBytes()
+            >= SizeConverter.mbToB(S3_MULTIPART_OUTPUT_THRESHOLD_MB);
+    }
+
     @Override
     public IndexOutput createTempOutput(String prefix, String suffix, IOContext context)
         throws IOException {
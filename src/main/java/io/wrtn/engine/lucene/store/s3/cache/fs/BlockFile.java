@@ -0,0 +1,231 @@
+package io.wrtn.engine.lucene.store.s3.cache.fs;
+
+import io.wrtn.engine.lucene.store.s3.storage.s3.S3Storage;
+import io.wrtn.util.GlobalLogger;
+import io.wrtn.util.Threads;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A sparse local copy of a storage object filled block by block with ranged reads. Blocks are
+ * written to a partial file at their own offsets, and the partial file is promoted to the regular
+ * cache file once every block is present. Shared by all inputs opened on the same file.
+ */
+class BlockFile implements Closeable {
+
+    static final String PARTIAL_FILE_SUFFIX = ".part";
+
+    private final String name;
+    private final String objectKey;
+    private final String versionId;
+    private final byte[] header;
+    private final byte[] footer;
+    private final long length;
+    private final int blockSize;
+    private final int numBlocks;
+    private final Path partPath;
+    private final Path filePath;
+    private final FileChannel channel;
+    private final S3Storage storage;
+    private final FSCache owner;
+
+    private final AtomicReferenceArray<CompletableFuture<Void>> blocks;
+    private final AtomicInteger loadedBlocks = new AtomicInteger();
+    private volatile boolean promoted = false;
+
+    // Guarded by the owning FSCache
+    int refCount = 0;
+
+    BlockFile(String name, long length, int blockSize, Path filePath, S3Storage storage,
+        FSCache owner) throws IOException {
+        this.name = name;
+        this.objectKey = storage.getObjectKey(name);
+        this.versionId = storage.getVersionId(name);
+        this.header = storage.getHeader(name);
+        this.footer = storage.getFooter(name);
+        this.length = length;
+        this.blockSize = blockSize;
+        this.numBlocks = Math.toIntExact((length + blockSize - 1) / blockSize);
+        this.filePath = filePath;
+        this.partPath = filePath.resolveSibling(name + PARTIAL_FILE_SUFFIX);
+        this.storage = storage;
+        this.owner = owner;
+        this.blocks = new AtomicReferenceArray<>(numBlocks);
+
+        // Loaded blocks are tracked in memory only, so a leftover partial file is useless
+        this.channel = FileChannel.open(partPath, StandardOpenOption.CREATE,
+            StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.READ,
+            StandardOpenOption.WRITE);
+    }
+
+    String getName() {
+        return name;
+    }
+
+    long length() {
+        return length;
+    }
+
+    /**
+     * Returns the leading bytes recorded in the storage metadata, or null if unknown.
+     */
+    byte[] getHeader() {
+        return header;
+    }
+
+    /**
+     * Returns the trailing bytes recorded in the storage metadata, or null if unknown.
+     */
+    byte[] getFooter() {
+        return footer;
+    }
+
+    int blockIndex(long pos) {
+        return (int) (pos / blockSize);
+    }
+
+    /**
+     * Reads bytes at the given file position, fetching the missing blocks from storage.
+     */
+    void read(long pos, byte[] dst, int offset, int len) throws IOException {
+        if (len == 0) {
+            return;
+        }
+
+        int first = blockIndex(pos);
+        int last = blockIndex(pos + len - 1);
+        // Fetch the trailing blocks in background while the first one is read in place
+        for (int i = first + 1; i <= last; i++) {
+            load(i, true);
+        }
+        for (int i = first; i <= last; i++) {
+            await(load(i, false));
+        }
+
+        ByteBuffer buffer = ByteBuffer.wrap(dst, offset, len);
+        long current = pos;
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, current);
+            if (read < 0) {
+                throw new IOException("Unexpected end of partial file: " + partPath);
+            }
+            current += read;
+        }
+    }
+
+    /**
+     * Starts fetching blocks in background if they are not present yet.
+     */
+    void prefetch(int fromBlock, int count) {
+        int to = Math.min(numBlocks, fromBlock + count);
+        for (int i = Math.max(0, fromBlock); i < to; i++) {
+            load(i, true);
+        }
+    }
+
+    private CompletableFuture<Void> load(int block, boolean async) {
+        CompletableFuture<Void> future = blocks.get(block);
+        if (future != null) {
+            return future;
+        }
+
+        CompletableFuture<Void> newFuture = new CompletableFuture<>();
+        if (!blocks.compareAndSet(block, null, newFuture)) {
+            return blocks.get(block);
+        }
+
+        Runnable task = () -> {
+            try {
+                fetch(block);
+                newFuture.complete(null);
+            } catch (Throwable t) {
+                // Allow the next reader to retry this block
+                blocks.compareAndSet(block, newFuture, null);
+                newFuture.completeExceptionally(t);
+            }
+        };
+
+        if (async) {
+            Threads.getIOExecutor().execute(task);
+        } else {
+            task.run();
+        }
+
+        return newFuture;
+    }
+
+    private void fetch(int block) throws IOException {
+        long start = (long) block * blockSize;
+        int len = (int) Math.min(blockSize, length - start);
+
+        byte[] bytes = storage.readRange(objectKey, versionId, start, len);
+        if (bytes.length != len) {
+            throw new IOException(
+                "Short ranged read of " + name + " block " + block + ": " + bytes.length + "/"
+                    + len);
+        }
+
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        long pos = start;
+        while (buffer.hasRemaining()) {
+            pos += channel.write(buffer, pos);
+        }
+
+        if (loadedBlocks.incrementAndGet() == numBlocks) {
+            promote();
+        }
+    }
+
+    private void promote() {
+        try {
+            Files.move(partPath, filePath, StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+            promoted = true;
+        } catch (IOException e) {
+            // The partial file is still readable through the open channel
+            GlobalLogger.warn("Failed to promote partial file " + partPath + ": " + e);
+        }
+    }
+
+    private static void await(CompletableFuture<Void> future) throws IOException {
+        try {
+            future.join();
+        } catch (CompletionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException ioe) {
+                throw ioe;
+            } else if (cause instanceof RuntimeException re) {
+                throw re;
+            }
+            throw new IOException(cause);
+        }
+    }
+
+    void release() throws IOException {
+        owner.releaseBlockFile(this);
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+        if (!promoted) {
+            Files.deleteIfExists(partPath);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "BlockFile(name=" + name + ", length=" + length + ", loadedBlocks="
+            + loadedBlocks.get() + "/" + numBlocks + ")";
+    }
+}
@@ -0,0 +1,204 @@
+package io.wrtn.engine.lucene.store.s3.cache.fs;
+
+import java.io.EOFException;
+import java.io.IOException;
+import org.apache.lucene.store.IOContext;
+import org.apache.lucene.store.IndexInput;
+import org.apache.lucene.store.ReadAdvice;
+
+/**
+ * An IndexInput reading a storage object lazily through a {@link BlockFile}. Bytes are served
+ * from a small page buffer, and blocks following the current one are prefetched once the input
+ * is read sequentially. Header and footer bytes known from the storage metadata are served from
+ * memory.
+ */
+public class BlockIndexInput extends IndexInput {
+
+    private static final int PAGE_SIZE = 16 * 1024;
+
+    private final BlockFile file;
+    private final long offset;
+    private final long length;
+    private final int prefetchBlocks;
+    private final boolean sequentialHint;
+    private boolean isClone;
+    private boolean isClosed = false;
+
+    private long pos = 0;
+
+    private byte[] page;
+    private byte[] window;
+    private long windowStart = -1;
+    private int windowLength = 0;
+    private int lastBlock = -2;
+
+    BlockIndexInput(String resourceDescription, BlockFile file, int prefetchBlocks,
+        IOContext context) {
+        this(resourceDescription, file, 0, file.length(), prefetchBlocks,
+            context.context() == IOContext.Context.MERGE
+                || context.readAdvice() == ReadAdvice.SEQUENTIAL, false);
+    }
+
+    private BlockIndexInput(String resourceDescription, BlockFile file, long offset, long length,
+        int prefetchBlocks, boolean sequentialHint, boolean isClone) {
+        super(resourceDescription);
+        this.file = file;
+        this.offset = offset;
+        this.length = length;
+        this.prefetchBlocks = prefetchBlocks;
+        this.sequentialHint = sequentialHint;
+        this.isClone = isClone;
+    }
+
+    @Override
+    public byte readByte() throws IOException {
+        if (pos >= length) {
+            throw new EOFException("read past EOF: " + this);
+        }
+
+        long absPos = offset + pos;
+        if (absPos < windowStart || absPos >= windowStart + windowLength) {
+            loadWindow(absPos);
+        }
+
+        pos++;
+        return window[(int) (absPos - windowStart)];
+    }
+
+    @Override
+    public void readBytes(byte[] b, int off, int len) throws IOException {
+        if (len > length - pos) {
+            throw new EOFException("read past EOF: " + this);
+        }
+
+        if (len >= PAGE_SIZE) {
+            // Large reads bypass the page buffer
+            long absPos = offset + pos;
+            trackAccess(file.blockIndex(absPos + len - 1));
+            file.read(absPos, b, off, len);
+            pos += len;
+            return;
+        }
+
+        while (len > 0) {
+            long absPos = offset + pos;
+            if (absPos < windowStart || absPos >= windowStart + windowLength) {
+                loadWindow(absPos);
+            }
+
+            int windowPos = (int) (absPos - windowStart);
+            int toCopy = Math.min(len, windowLength - windowPos);
+            System.arraycopy(window, windowPos, b, off, toCopy);
+            off += toCopy;
+            len -= toCopy;
+            pos += toCopy;
+        }
+    }
+
+    private void loadWindow(long absPos) throws IOException {
+        // Codec headers and footers are served from the storage metadata without any read
+        byte[] header = file.getHeader();
+        if (header != null && absPos < header.length) {
+            window = header;
+            windowStart = 0;
+            windowLength = header.length;
+            return;
+        }
+        byte[] footer = file.getFooter();
+        if (footer != null && absPos >= file.length() - footer.length) {
+            window = footer;
+            windowStart = file.length() - footer.length;
+            windowLength = footer.length;
+            return;
+        }
+
+        if (page == null) {
+            page = new byte[PAGE_SIZE];
+        }
+
+        long start = absPos - (absPos % PAGE_SIZE);
+        int len = (int) Math.min(PAGE_SIZE, file.length() - start);
+
+        trackAccess(file.blockIndex(start));
+        file.read(start, page, 0, len);
+
+        window = page;
+        windowStart = start;
+        windowLength = len;
+    }
+
+    private void trackAccess(int block) {
+        if (block == lastBlock) {
+            return;
+        }
+
+        boolean sequential = sequentialHint || block == lastBlock + 1;
+        lastBlock = block;
+        if (sequential && prefetchBlocks > 0) {
+            file.prefetch(block + 1, prefetchBlocks);
+        }
+    }
+
+    @Override
+    public void prefetch(long offset, long length) {
+        if (length <= 0) {
+            return;
+        }
+
+        long absPos = this.offset + offset;
+        int first = file.blockIndex(absPos);
+        int last = file.blockIndex(Math.min(absPos + length, this.offset + this.length) - 1);
+        file.prefetch(first, last - first + 1);
+    }
+
+    @Override
+    public long getFilePointer() {
+        return pos;
+    }
+
+    @Override
+    public void seek(long pos) throws IOException {
+        if (pos < 0 || pos > length) {
+            throw new EOFException("seek past EOF: pos=" + pos + " length=" + length + ": " + this);
+        }
+        this.pos = pos;
+    }
+
+    @Override
+    public long length() {
+        return length;
+    }
+
+    @Override
+    public BlockIndexInput clone() {
+        BlockIndexInput clone = (BlockIndexInput) super.clone();
+        clone.isClone = true;
+        // The page buffer must not be shared with the clone
+        clone.page = null;
+        clone.window = null;
+        clone.windowStart = -1;
+        clone.windowLength = 0;
+        return clone;
+    }
+
+    @Override
+    public IndexInput slice(String sliceDescription, long offset, long length)
+        throws IOException {
+        if (offset < 0 || length < 0 || offset + length > this.length) {
+            throw new IllegalArgumentException(
+                "slice() " + sliceDescription + " out of bounds: offset=" + offset + ",length="
+                    + length + ",fileLength=" + this.length + ": " + this);
+        }
+
+        return new BlockIndexInput(getFullSliceDescription(sliceDescription), file,
+            this.offset + offset, length, prefetchBlocks, sequentialHint, true);
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (!isClone && !isClosed) {
+            isClosed = true;
+            file.release();
+        }
+    }
+}
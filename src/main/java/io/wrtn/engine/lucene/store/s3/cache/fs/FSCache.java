@@ -1,7 +1,17 @@
 package io.wrtn.engine.lucene.store.s3.cache.fs;
 
 import io.wrtn.engine.lucene.store.s3.storage.s3.S3Storage;
+import io.wrtn.util.GlobalLogger;
 import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
 import org.apache.lucene.store.FSDirectory;
 import org.apache.lucene.store.IOContext;
 import org.apache.lucene.store.IndexInput;
@@ -9,28 +19,198 @@ import org.apache.lucene.store.IndexInput;
 import java.io.IOException;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
 
 public class FSCache {
 
+    private static final String INLINED_FILE_SUFFIX = ".inlined";
+
+    // Files read when a reader is opened, prefetched before the others
+    private static final String[] READER_OPEN_FILE_EXTENSIONS = {".si", ".fnm", ".cfe", ".tip",
+        ".tmd"};
+
     private final FSDirectory dir;
     private final S3Storage storage;
+    private final FSCacheConfig config;
+    private final FSCacheManager manager;
+
+    // Partially downloaded files shared by the inputs opened on them
+    private final Map<String, BlockFile> blockFiles = new HashMap<>();
+
+    // Whole file downloads started by prefetch
+    private final Map<String, CompletableFuture<Void>> downloads = new ConcurrentHashMap<>();
 
     public FSCache(FSCacheConfig config, S3Storage storage) throws IOException {
         this.dir = FSDirectory.open(Paths.get(config.dir()));
         this.storage = storage;
+        this.config = config;
+        this.manager = FSCacheManager.getInstance();
     }
 
     public IndexInput openInput(String name, IOContext context)
         throws IOException {
         Path path = dir.getDirectory().resolve(name);
-        if (!Files.exists(path) || (Files.size(path) != storage.fileLength(name))) {
-            storage.readToFile(name, path);
+        long length = storage.fileLength(name);
+
+        CompletableFuture<Void> download = downloads.get(name);
+        if (download != null && (download.isDone() || length < config.blockReadThreshold())) {
+            // Small files are near the head of the prefetch queue, so waiting is cheaper
+            awaitDownload(name, download);
+        }
+
+        if (manager.pinIfPresent(path, length)) {
+            return openPinnedInput(name, path, context);
+        }
+
+        byte[] fullBytes = storage.getFullBytes(name);
+        if (fullBytes != null) {
+            // Inlined in the storage metadata
+            manager.pinMiss(path, length);
+            try {
+                writeInlinedFile(path, fullBytes);
+            } catch (Exception e) {
+                manager.unpin(path);
+                throw e;
+            }
+            return openPinnedInput(name, path, context);
+        }
+
+        if (length < config.blockReadThreshold() && !hasHeaderAndFooter(name)) {
+            manager.pinMiss(path, length);
+            try {
+                storage.readToFile(name, path);
+            } catch (Exception e) {
+                Files.deleteIfExists(path);
+                manager.unpin(path);
+                throw e;
+            }
+            return openPinnedInput(name, path, context);
+        }
+
+        // Large files, and files opening a reader touches only the ends of, are fetched lazily
+        // with ranged reads
+        return new BlockIndexInput("BlockIndexInput(path=\"" + path + "\")",
+            acquireBlockFile(name, length, path), config.prefetchBlocks(), context);
+    }
+
+    /**
+     * Starts downloading whole files in background, metadata files needed to open a reader first
+     * and the others from the smallest. Files already present or being downloaded are skipped.
+     */
+    public void prefetch(Collection<String> names) throws IOException {
+        List<String> toDownload = new ArrayList<>();
+        for (String name : names) {
+            Path path = dir.getDirectory().resolve(name);
+            if (!downloads.containsKey(name) && !Files.exists(path)
+                && storage.getFullBytes(name) == null) {
+                toDownload.add(name);
+            }
+        }
+
+        toDownload.sort(Comparator.comparing((String name) -> !isReaderOpenFile(name))
+            .thenComparingLong(storage::fileLength));
+
+        for (String name : toDownload) {
+            Path path = dir.getDirectory().resolve(name);
+            long length = storage.fileLength(name);
+            manager.pinMiss(path, length);
+            CompletableFuture<Void> download = storage.readToFileAsync(name, path)
+                .whenComplete((v, t) -> {
+                    if (t != null) {
+                        GlobalLogger.warn("Failed to prefetch " + name + ": " + t);
+                        downloads.remove(name);
+                    }
+                    // Other pinners of the path, such as a block file, keep their pins
+                    manager.unpin(path);
+                });
+            downloads.put(name, download);
+        }
+    }
+
+    private static boolean isReaderOpenFile(String name) {
+        for (String extension : READER_OPEN_FILE_EXTENSIONS) {
+            if (name.endsWith(extension)) {
+                return true;
+            }
         }
+        return false;
+    }
+
+    private static void awaitDownload(String name, CompletableFuture<Void> download) {
+        try {
+            download.join();
+        } catch (CompletionException e) {
+            // Fall back to a regular read
+            GlobalLogger.warn("Prefetch of " + name + " failed: " + e.getCause());
+        }
+    }
+
+    private static void writeInlinedFile(Path path, byte[] bytes) throws IOException {
+        Path tempPath = Files.createTempFile(path.getParent(), path.getFileName().toString(),
+            INLINED_FILE_SUFFIX);
+        Files.write(tempPath, bytes);
+        Files.move(tempPath, path, StandardCopyOption.REPLACE_EXISTING,
+            StandardCopyOption.ATOMIC_MOVE);
+    }
 
-        return dir.openInput(name, context);
+    private boolean hasHeaderAndFooter(String name) {
+        return storage.getHeader(name) != null && storage.getFooter(name) != null;
+    }
+
+    private IndexInput openPinnedInput(String name, Path path, IOContext context)
+        throws IOException {
+        IndexInput in;
+        try {
+            in = dir.openInput(name, context);
+        } catch (Exception e) {
+            manager.unpin(path);
+            throw e;
+        }
+        return new PinnedIndexInput(in, () -> manager.unpin(path));
+    }
+
+    private synchronized BlockFile acquireBlockFile(String name, long length, Path path)
+        throws IOException {
+        BlockFile file = blockFiles.get(name);
+        if (file == null) {
+            manager.pinMiss(path, length);
+            try {
+                file = new BlockFile(name, length, config.blockSize(), path, storage, this);
+            } catch (Exception e) {
+                manager.unpin(path);
+                throw e;
+            }
+            blockFiles.put(name, file);
+        }
+        file.refCount++;
+        return file;
+    }
+
+    synchronized void releaseBlockFile(BlockFile file) throws IOException {
+        if (--file.refCount == 0) {
+            blockFiles.remove(file.getName());
+            closeBlockFile(file);
+        }
+    }
+
+    private void closeBlockFile(BlockFile file) throws IOException {
+        Path path = dir.getDirectory().resolve(file.getName());
+        try {
+            file.close();
+        } finally {
+            // Still counted if promoted or downloaded by prefetch, even after the download
+            // releases its own pin; forgotten once the last pin is released otherwise
+            manager.unpin(path);
+        }
     }
 
     public void close() throws IOException {
+        synchronized (this) {
+            for (BlockFile file : blockFiles.values()) {
+                closeBlockFile(file);
+            }
+            blockFiles.clear();
+        }
         dir.close();
     }
 
@@ -40,5 +220,6 @@ public class FSCache {
 
     public void deleteFile(String name) throws IOException {
         dir.deleteFile(name);
+        manager.remove(dir.getDirectory().resolve(name));
     }
-}
\ No newline at end of file
+}
@@ -1,3 +1,24 @@
 package io.wrtn.engine.lucene.store.s3.cache.fs;
 
-public record FSCacheConfig(String dir) {}
+import static io.wrtn.util.Constants.Config.FS_CACHE_BLOCK_READ_THRESHOLD_MB;
+import static io.wrtn.util.Constants.Config.FS_CACHE_BLOCK_SIZE_KB;
+import static io.wrtn.util.Constants.Config.FS_CACHE_PREFETCH_BLOCKS;
+
+import io.wrtn.util.SizeConverter;
+
+/**
+ * A FS cache configuration.
+ *
+ * @param dir                the local cache directory
+ * @param blockSize          the size of a block fetched by a single ranged read
+ * @param prefetchBlocks     the number of blocks read ahead on sequential access
+ * @param blockReadThreshold files equal to or larger than this are read block by block
+ */
+public record FSCacheConfig(String dir, int blockSize, int prefetchBlocks,
+                            long blockReadThreshold) {
+
+    public FSCacheConfig(String dir) {
+        this(dir, FS_CACHE_BLOCK_SIZE_KB * 1024, FS_CACHE_PREFETCH_BLOCKS,
+            SizeConverter.mbToB(FS_CACHE_BLOCK_READ_THRESHOLD_MB));
+    }
+}
@@ -0,0 +1,212 @@
+package io.wrtn.engine.lucene.store.s3.cache.fs;
+
+import static io.wrtn.util.Constants.Config.FS_CACHE_EVICTION_POLICY;
+import static io.wrtn.util.Constants.Config.FS_CACHE_SIZE_LIMIT_MB;
+import static io.wrtn.util.Constants.Config.FS_TEMP_PATH;
+
+import io.wrtn.util.GlobalLogger;
+import io.wrtn.util.SizeConverter;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Keeps the local files of every {@link FSCache} in the process within a byte budget. Files opened
+ * by a reader are pinned and never evicted; the others are evicted by the configured policy when
+ * space is needed for a new download.
+ */
+public final class FSCacheManager {
+
+    public enum EvictionPolicy {
+        LRU,
+        LFU
+    }
+
+    /**
+     * A point-in-time snapshot of the cache counters.
+     */
+    public record Stats(long capacity, long usedBytes, int files, long hits, long misses,
+                        long evictedFiles, long evictedBytes) {
+
+    }
+
+    private static final class Entry {
+
+        private long size;
+        private long lastAccess;
+        private long accessCount = 0;
+        private int pins = 0;
+
+        private Entry(long size) {
+            this.size = size;
+        }
+    }
+
+    // Leave room for the index builder buffer and other temporary files
+    private static final double DEFAULT_CAPACITY_RATIO = 0.8;
+
+    private static volatile FSCacheManager instance;
+
+    private final long capacity;
+    private final EvictionPolicy policy;
+
+    // Guarded by this
+    private final Map<Path, Entry> entries = new HashMap<>();
+    private long usedBytes = 0;
+    private long clock = 0;
+    private long hits = 0;
+    private long misses = 0;
+    private long evictedFiles = 0;
+    private long evictedBytes = 0;
+
+    FSCacheManager(long capacity, EvictionPolicy policy) {
+        this.capacity = capacity;
+        this.policy = policy;
+    }
+
+    public static FSCacheManager getInstance() {
+        if (instance == null) {
+            synchronized (FSCacheManager.class) {
+                if (instance == null) {
+                    instance = new FSCacheManager(defaultCapacity(),
+                        EvictionPolicy.valueOf(FS_CACHE_EVICTION_POLICY));
+                }
+            }
+        }
+        return instance;
+    }
+
+    private static long defaultCapacity() {
+        if (FS_CACHE_SIZE_LIMIT_MB > 0) {
+            return SizeConverter.mbToB(FS_CACHE_SIZE_LIMIT_MB);
+        }
+
+        if (FS_TEMP_PATH != null) {
+            try {
+                Path root = Paths.get(FS_TEMP_PATH);
+                while (!Files.exists(root) && root.getParent() != null) {
+                    root = root.getParent();
+                }
+                return (long) (Files.getFileStore(root).getTotalSpace() * DEFAULT_CAPACITY_RATIO);
+            } catch (IOException e) {
+                GlobalLogger.warn("Failed to get the size of " + FS_TEMP_PATH + ": " + e);
+            }
+        }
+        return Long.MAX_VALUE;
+    }
+
+    /**
+     * Pins a file if it is already present on local disk with the expected size. Checked under
+     * the lock so that the file cannot be evicted in between.
+     */
+    synchronized boolean pinIfPresent(Path path, long size) throws IOException {
+        if (!Files.exists(path) || Files.size(path) != size) {
+            return false;
+        }
+        hits++;
+        pin(path, size);
+        return true;
+    }
+
+    /**
+     * Pins a file about to be downloaded, evicting unpinned files to make room for it.
+     */
+    synchronized void pinMiss(Path path, long size) {
+        misses++;
+        pin(path, size);
+        evict();
+    }
+
+    private void pin(Path path, long size) {
+        Entry entry = entries.get(path);
+        if (entry == null) {
+            entry = new Entry(size);
+            entries.put(path, entry);
+            usedBytes += size;
+        } else if (entry.size != size) {
+            usedBytes += size - entry.size;
+            entry.size = size;
+        }
+
+        entry.lastAccess = ++clock;
+        entry.accessCount++;
+        entry.pins++;
+    }
+
+    /**
+     * Releases a pin. A file no longer pinned stays counted while it is on local disk, where a
+     * download or a promoted partial file may have put it after another pinner gave up on it, and
+     * is forgotten otherwise.
+     */
+    synchronized void unpin(Path path) {
+        Entry entry = entries.get(path);
+        if (entry == null) {
+            return;
+        }
+        if (entry.pins > 0) {
+            entry.pins--;
+        }
+        if (entry.pins == 0 && !Files.exists(path)) {
+            entries.remove(path);
+            usedBytes -= entry.size;
+        }
+    }
+
+    /**
+     * Forgets a file that has been deleted, unless it is pinned. The last pinner forgets it on
+     * unpin instead.
+     */
+    synchronized void remove(Path path) {
+        Entry entry = entries.get(path);
+        if (entry != null && entry.pins == 0) {
+            entries.remove(path);
+            usedBytes -= entry.size;
+        }
+    }
+
+    private void evict() {
+        while (usedBytes > capacity) {
+            // Linear scan is fine for the few hundred files a container holds
+            Path victimPath = null;
+            Entry victim = null;
+            for (Map.Entry<Path, Entry> e : entries.entrySet()) {
+                Entry candidate = e.getValue();
+                if (candidate.pins == 0 && (victim == null || isColder(candidate, victim))) {
+                    victimPath = e.getKey();
+                    victim = candidate;
+                }
+            }
+
+            if (victim == null) {
+                GlobalLogger.warn("FS cache is over budget with only pinned files: used="
+                    + usedBytes + " capacity=" + capacity);
+                return;
+            }
+
+            try {
+                Files.deleteIfExists(victimPath);
+            } catch (IOException e) {
+                GlobalLogger.warn("Failed to evict " + victimPath + ": " + e);
+            }
+            entries.remove(victimPath);
+            usedBytes -= victim.size;
+            evictedFiles++;
+            evictedBytes += victim.size;
+        }
+    }
+
+    private boolean isColder(Entry a, Entry b) {
+        if (policy == EvictionPolicy.LFU && a.accessCount != b.accessCount) {
+            return a.accessCount < b.accessCount;
+        }
+        return a.lastAccess < b.lastAccess;
+    }
+
+    public synchronized Stats getStats() {
+        return new Stats(capacity, usedBytes, entries.size(), hits, misses, evictedFiles,
+            evictedBytes);
+    }
+}
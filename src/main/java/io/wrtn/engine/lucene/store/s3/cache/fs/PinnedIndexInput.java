@@ -0,0 +1,70 @@
+package io.wrtn.engine.lucene.store.s3.cache.fs;
+
+import java.io.IOException;
+import java.util.Optional;
+import org.apache.lucene.store.FilterIndexInput;
+import org.apache.lucene.store.IndexInput;
+import org.apache.lucene.store.ReadAdvice;
+
+/**
+ * Keeps a cached file pinned in the {@link FSCacheManager} until the input is closed. Clones and
+ * slices are handed out unwrapped since they are never closed by Lucene.
+ */
+class PinnedIndexInput extends FilterIndexInput {
+
+    private final Runnable onClose;
+    private boolean isClosed = false;
+
+    PinnedIndexInput(IndexInput in, Runnable onClose) {
+        super(in.toString(), in);
+        this.onClose = onClose;
+    }
+
+    @Override
+    public IndexInput clone() {
+        return in.clone();
+    }
+
+    @Override
+    public short readShort() throws IOException {
+        return in.readShort();
+    }
+
+    @Override
+    public int readInt() throws IOException {
+        return in.readInt();
+    }
+
+    @Override
+    public long readLong() throws IOException {
+        return in.readLong();
+    }
+
+    @Override
+    public void prefetch(long offset, long length) throws IOException {
+        in.prefetch(offset, length);
+    }
+
+    @Override
+    public void updateReadAdvice(ReadAdvice readAdvice) throws IOException {
+        in.updateReadAdvice(readAdvice);
+    }
+
+    @Override
+    public Optional<Boolean> isLoaded() {
+        return in.isLoaded();
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (isClosed) {
+            return;
+        }
+        isClosed = true;
+        try {
+            in.close();
+        } finally {
+            onClose.run();
+        }
+    }
+}
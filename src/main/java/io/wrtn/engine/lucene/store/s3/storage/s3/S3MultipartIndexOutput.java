@@ -0,0 +1,178 @@
+package io.wrtn.engine.lucene.store.s3.storage.s3;
+
+import static io.wrtn.engine.lucene.Constants.STORAGE_FILE_FOOTER_LENGTH;
+import static io.wrtn.engine.lucene.Constants.STORAGE_FILE_HEADER_LENGTH;
+
+import io.wrtn.util.GlobalLogger;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.zip.CRC32;
+import org.apache.lucene.store.BufferedChecksum;
+import org.apache.lucene.store.IndexOutput;
+import software.amazon.awssdk.services.s3.model.CompletedPart;
+
+/**
+ * An IndexOutput uploading its bytes to S3 as multipart upload parts while they are written, so
+ * that large files never hit the local disk. Parts are uploaded in background with a bounded
+ * number in flight. Files smaller than a single part are uploaded with a plain PutObject, and
+ * inlined into the storage metadata like synced files when small enough.
+ * <p>
+ * The upload is completed when the output is closed, not when the file is synced: Lucene reads
+ * merged files back before committing them, to build compound files and check their integrity,
+ * so the object must be readable once the output is closed. Syncing these files is a no-op.
+ */
+public class S3MultipartIndexOutput extends IndexOutput {
+
+    private final S3Storage storage;
+    private final String prefixedName;
+    private final String key;
+    private final int partSize;
+    private final Semaphore inFlightParts;
+
+    private final BufferedChecksum crc = new BufferedChecksum(new CRC32());
+    private final List<CompletableFuture<CompletedPart>> parts = new ArrayList<>();
+    private final AtomicReference<Throwable> failure = new AtomicReference<>();
+
+    private byte[] buffer;
+    private int bufferPos = 0;
+    private long bytesWritten = 0;
+    private String uploadId;
+    private boolean isClosed = false;
+
+    private byte[] header;
+    private byte[] footer;
+
+    S3MultipartIndexOutput(S3Storage storage, String name, String prefixedName, String key,
+        int partSize, int maxParts) {
+        super("S3MultipartIndexOutput(key=\"" + key + "\")", name);
+        this.storage = storage;
+        this.prefixedName = prefixedName;
+        this.key = key;
+        this.partSize = partSize;
+        this.inFlightParts = new Semaphore(maxParts);
+        this.buffer = new byte[partSize];
+    }
+
+    @Override
+    public void writeByte(byte b) throws IOException {
+        if (bufferPos == partSize) {
+            uploadPart();
+        }
+        buffer[bufferPos++] = b;
+        crc.update(b);
+        bytesWritten++;
+    }
+
+    @Override
+    public void writeBytes(byte[] b, int offset, int length) throws IOException {
+        crc.update(b, offset, length);
+        bytesWritten += length;
+        while (length > 0) {
+            if (bufferPos == partSize) {
+                uploadPart();
+            }
+            int toCopy = Math.min(length, partSize - bufferPos);
+            System.arraycopy(b, offset, buffer, bufferPos, toCopy);
+            bufferPos += toCopy;
+            offset += toCopy;
+            length -= toCopy;
+        }
+    }
+
+    private void uploadPart() throws IOException {
+        checkFailure();
+        if (uploadId == null) {
+            uploadId = storage.createMultipartUpload(key);
+        }
+
+        if (parts.isEmpty()) {
+            header = Arrays.copyOf(buffer, Math.min(STORAGE_FILE_HEADER_LENGTH, bufferPos));
+        }
+        footer = Arrays.copyOfRange(buffer, Math.max(0, bufferPos - STORAGE_FILE_FOOTER_LENGTH),
+            bufferPos);
+
+        inFlightParts.acquireUninterruptibly();
+        CompletableFuture<CompletedPart> part = storage.uploadPart(key, uploadId,
+            parts.size() + 1, buffer, bufferPos);
+        part.whenComplete((p, t) -> {
+            if (t != null) {
+                failure.compareAndSet(null, t);
+            }
+            inFlightParts.release();
+        });
+        parts.add(part);
+
+        // The previous buffer is owned by the request until it completes
+        buffer = new byte[partSize];
+        bufferPos = 0;
+    }
+
+    private void checkFailure() throws IOException {
+        Throwable t = failure.get();
+        if (t != null) {
+            throw new IOException("Failed to upload a part of " + key, t);
+        }
+    }
+
+    @Override
+    public long getFilePointer() {
+        return bytesWritten;
+    }
+
+    @Override
+    public long getChecksum() {
+        return crc.getValue();
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (isClosed) {
+            return;
+        }
+        isClosed = true;
+
+        if (uploadId == null) {
+            String versionId = storage.putObject(key, buffer, bufferPos);
+            storage.addFile(getName(), prefixedName, versionId, buffer, bufferPos);
+            buffer = null;
+            return;
+        }
+
+        String versionId;
+        try {
+            if (bufferPos > 0) {
+                uploadPart();
+            }
+            List<CompletedPart> completedParts = new ArrayList<>(parts.size());
+            for (CompletableFuture<CompletedPart> part : parts) {
+                completedParts.add(part.join());
+            }
+            versionId = storage.completeMultipartUpload(key, uploadId, completedParts);
+        } catch (IOException | CompletionException e) {
+            abort();
+            throw e instanceof IOException ioe ? ioe
+                : new IOException("Failed to upload " + key, e.getCause());
+        }
+        buffer = null;
+
+        storage.addFile(getName(), prefixedName, bytesWritten, versionId, header, footer);
+    }
+
+    private void abort() {
+        // Parts still in flight would otherwise outlive the aborted upload
+        for (CompletableFuture<CompletedPart> part : parts) {
+            part.exceptionally(t -> null).join();
+        }
+        try {
+            storage.abortMultipartUpload(key, uploadId);
+        } catch (Exception e) {
+            GlobalLogger.warn("Failed to abort multipart upload of " + key + ": " + e);
+        }
+    }
+}
@@ -1,15 +1,36 @@
 package io.wrtn.engine.lucene.store.s3.storage.s3;
 
+import static io.wrtn.engine.lucene.Constants.MAX_STORAGE_REQUEST_ATTEMPTS;
+import static io.wrtn.engine.lucene.Constants.MAX_STORAGE_REQUEST_AT_ONCE;
+import static io.wrtn.engine.lucene.Constants.STORAGE_FILE_FOOTER_LENGTH;
+import static io.wrtn.engine.lucene.Constants.STORAGE_FILE_HEADER_LENGTH;
+import static io.wrtn.engine.lucene.Constants.STORAGE_REQUEST_RETRY_BACKOFF_MS;
+import static io.wrtn.util.Constants.Config.STORAGE_INLINE_FILE_THRESHOLD_KB;
 import static org.apache.lucene.index.IndexFileNames.parseSegmentName;
 
 import io.wrtn.model.storage.StorageMetadata;
+import io.wrtn.util.GlobalLogger;
 import io.wrtn.util.PathBuilder;
+import io.wrtn.util.Threads;
+import java.io.EOFException;
 import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 import io.wrtn.model.storage.File;
-import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import org.apache.lucene.store.IndexOutput;
+import software.amazon.awssdk.core.FileTransformerConfiguration;
 import software.amazon.awssdk.core.ResponseInputStream;
 import software.amazon.awssdk.core.async.AsyncRequestBody;
+import software.amazon.awssdk.core.async.AsyncResponseTransformer;
 import software.amazon.awssdk.core.sync.ResponseTransformer;
 import software.amazon.awssdk.services.s3.S3AsyncClient;
 import software.amazon.awssdk.services.s3.S3Client;
@@ -23,6 +44,8 @@ import java.util.*;
  */
 public class S3Storage {
 
+    private static final String DOWNLOAD_FILE_SUFFIX = ".download";
+
     private final String bucket;
 
     private final S3AsyncClient s3Client;
@@ -94,38 +117,159 @@ public class S3Storage {
             ResponseTransformer.toFile(filePath));
     }
 
+    /**
+     * Reads a whole object into a temporary file in background, and moves it to the given path
+     * once complete so that a partially downloaded file is never visible.
+     *
+     * @param name     the object name
+     * @param filePath the file path to be written
+     */
+    public CompletableFuture<Void> readToFileAsync(final String name, final Path filePath) {
+        Path tempPath = filePath.resolveSibling(filePath.getFileName() + DOWNLOAD_FILE_SUFFIX);
+        return s3Client.getObject(
+                req -> req.bucket(bucket).key(PathBuilder.buildObjectKeyForRead(meta, name))
+                    .versionId(getVersionId(name)),
+                AsyncResponseTransformer.toFile(tempPath,
+                    FileTransformerConfiguration.defaultCreateOrReplaceExisting()))
+            .thenAccept(resp -> {
+                try {
+                    Files.move(tempPath, filePath, StandardCopyOption.REPLACE_EXISTING,
+                        StandardCopyOption.ATOMIC_MOVE);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+    }
+
+    /**
+     * Reads a byte range of a versioned object.
+     *
+     * @param key       the object key
+     * @param versionId the object version ID
+     * @param offset    the first byte to read
+     * @param length    the number of bytes to read
+     * @return the bytes read
+     */
+    public byte[] readRange(final String key, final String versionId, final long offset,
+        final int length) {
+        return s3SyncClient.getObject(
+            req -> req.bucket(bucket).key(key).versionId(versionId)
+                .range("bytes=" + offset + "-" + (offset + length - 1)),
+            ResponseTransformer.toBytes()).asByteArrayUnsafe();
+    }
+
     public void writeFromFile(final String name, final Path filePath) {
         String prefixedName = buildPrefixedName(name);
-        PutObjectResponse resp = s3Client.putObject(PutObjectRequest.builder()
-                .bucket(bucket).key(PathBuilder.buildObjectKeyForWrite(meta, prefixedName)).build(),
-            AsyncRequestBody.fromFile(filePath)).join();
+        PutObjectResponse resp = putObject(
+            PathBuilder.buildObjectKeyForWrite(meta, prefixedName), filePath, 1).join();
 
         // Reflect the file metadata to the storage metadata
         addFile(name, prefixedName, filePath, resp.versionId());
     }
 
+    /**
+     * Uploads files concurrently, keeping at most MAX_STORAGE_REQUEST_AT_ONCE requests in flight.
+     * The storage metadata is updated in the given order once every upload has succeeded.
+     */
     public void writeFromFiles(final List<String> names, final List<Path> filePaths) {
 
-        List<PutObjectResponse> resps = new ArrayList<>();
+        Semaphore window = new Semaphore(MAX_STORAGE_REQUEST_AT_ONCE);
+        List<CompletableFuture<PutObjectResponse>> futures = new ArrayList<>();
         List<String> prefixedNames = new ArrayList<>();
         for (int i = 0; i < names.size(); i++) {
-            String name = names.get(i);
             Path filePath = filePaths.get(i);
-            String prefixedName = buildPrefixedName(name);
+            String prefixedName = buildPrefixedName(names.get(i));
             prefixedNames.add(prefixedName);
 
-            resps.add(s3Client.putObject(PutObjectRequest.builder()
-                    .bucket(bucket).key(PathBuilder.buildObjectKeyForWrite(meta, prefixedName)).build(),
-                AsyncRequestBody.fromFile(filePath)).join());
+            window.acquireUninterruptibly();
+            CompletableFuture<PutObjectResponse> future = putObject(
+                PathBuilder.buildObjectKeyForWrite(meta, prefixedName), filePath, 1);
+            future.whenComplete((resp, t) -> window.release());
+            futures.add(future);
         }
 
-        assert names.size() == resps.size();
+        CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[0])).join();
+
+        assert names.size() == futures.size();
 
-        for (int i = 0; i < resps.size(); i++) {
-            addFile(names.get(i), prefixedNames.get(i), filePaths.get(i), resps.get(i).versionId());
+        for (int i = 0; i < futures.size(); i++) {
+            addFile(names.get(i), prefixedNames.get(i), filePaths.get(i),
+                futures.get(i).join().versionId());
         }
     }
 
+    private CompletableFuture<PutObjectResponse> putObject(final String key, final Path filePath,
+        final int attempt) {
+        return s3Client.putObject(PutObjectRequest.builder().bucket(bucket).key(key).build(),
+                AsyncRequestBody.fromFile(filePath))
+            .handle((resp, t) -> {
+                if (t == null) {
+                    return CompletableFuture.completedFuture(resp);
+                } else if (attempt >= MAX_STORAGE_REQUEST_ATTEMPTS) {
+                    return CompletableFuture.<PutObjectResponse>failedFuture(t);
+                }
+
+                GlobalLogger.warn("Retrying upload of " + key + " after attempt " + attempt
+                    + ": " + t);
+                Executor delayed = CompletableFuture.delayedExecutor(
+                    STORAGE_REQUEST_RETRY_BACKOFF_MS * attempt, TimeUnit.MILLISECONDS,
+                    Threads.getIOExecutor());
+                return CompletableFuture.supplyAsync(() -> null, delayed)
+                    .thenCompose(v -> putObject(key, filePath, attempt + 1));
+            })
+            .thenCompose(Function.identity());
+    }
+
+    /**
+     * Creates an output streaming the file to storage with a multipart upload while it is being
+     * written. The upload is completed and the file is added to the storage metadata when the
+     * output is closed, so the file is already in storage by the time it is synced.
+     *
+     * @param name     the file name
+     * @param partSize the size of each uploaded part
+     * @param maxParts the maximum number of parts in flight
+     */
+    public IndexOutput createMultipartOutput(final String name, final int partSize,
+        final int maxParts) {
+        String prefixedName = buildPrefixedName(name);
+        return new S3MultipartIndexOutput(this, name, prefixedName,
+            PathBuilder.buildObjectKeyForWrite(meta, prefixedName), partSize, maxParts);
+    }
+
+    String createMultipartUpload(final String key) {
+        return s3Client.createMultipartUpload(req -> req.bucket(bucket).key(key)).join()
+            .uploadId();
+    }
+
+    CompletableFuture<CompletedPart> uploadPart(final String key, final String uploadId,
+        final int partNumber, final byte[] bytes, final int length) {
+        return s3Client.uploadPart(
+                req -> req.bucket(bucket).key(key).uploadId(uploadId).partNumber(partNumber)
+                    .contentLength((long) length),
+                AsyncRequestBody.fromRemainingByteBufferUnsafe(ByteBuffer.wrap(bytes, 0, length)))
+            .thenApply(resp -> CompletedPart.builder().partNumber(partNumber).eTag(resp.eTag())
+                .build());
+    }
+
+    String completeMultipartUpload(final String key, final String uploadId,
+        final List<CompletedPart> parts) {
+        return s3Client.completeMultipartUpload(
+                req -> req.bucket(bucket).key(key).uploadId(uploadId)
+                    .multipartUpload(upload -> upload.parts(parts)))
+            .join().versionId();
+    }
+
+    void abortMultipartUpload(final String key, final String uploadId) {
+        s3Client.abortMultipartUpload(req -> req.bucket(bucket).key(key).uploadId(uploadId))
+            .join();
+    }
+
+    String putObject(final String key, final byte[] bytes, final int length) {
+        return s3Client.putObject(req -> req.bucket(bucket).key(key),
+                AsyncRequestBody.fromRemainingByteBufferUnsafe(ByteBuffer.wrap(bytes, 0, length)))
+            .join().versionId();
+    }
+
     /**
      * Releases the created S3 clients.
      */
@@ -136,6 +280,23 @@ public class S3Storage {
         return meta.getTotalSize();
     }
 
+    /**
+     * Returns the bytes of file contents held in memory by the storage metadata: the headers and
+     * footers, and the inlined files.
+     */
+    public synchronized long getHeapSize() {
+        long bytes = 0;
+        for (File file : meta.getFileMap().values()) {
+            bytes += length(file.getHeader()) + length(file.getFooter())
+                + length(file.getFullBytes());
+        }
+        return bytes;
+    }
+
+    private static long length(byte[] bytes) {
+        return bytes == null ? 0 : bytes.length;
+    }
+
     public StorageMetadata getMeta() {
         return meta;
     }
@@ -146,42 +307,104 @@ public class S3Storage {
 
     private void addFile(String name, String prefixedName, Path filePath, String versionId) {
         long fileLength = filePath.toFile().length();
+        if (isInlined(fileLength)) {
+            try {
+                addFile(name, prefixedName, fileLength, versionId, Files.readAllBytes(filePath));
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            return;
+        }
+
+        byte[] header = new byte[(int) Math.min(STORAGE_FILE_HEADER_LENGTH, fileLength)];
+        byte[] footer = new byte[(int) Math.min(STORAGE_FILE_FOOTER_LENGTH, fileLength)];
+        try (FileChannel channel = FileChannel.open(filePath, StandardOpenOption.READ)) {
+            readFully(channel, header, 0);
+            readFully(channel, footer, fileLength - footer.length);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+
+        addFile(name, prefixedName, fileLength, versionId, header, footer);
+    }
+
+    /**
+     * Adds a file uploaded from memory, inlined under the same threshold as the synced files.
+     */
+    void addFile(String name, String prefixedName, String versionId, byte[] bytes,
+        int length) {
+        if (isInlined(length)) {
+            addFile(name, prefixedName, length, versionId, Arrays.copyOf(bytes, length));
+            return;
+        }
+        addFile(name, prefixedName, length, versionId,
+            Arrays.copyOf(bytes, Math.min(STORAGE_FILE_HEADER_LENGTH, length)),
+            Arrays.copyOfRange(bytes, Math.max(0, length - STORAGE_FILE_FOOTER_LENGTH), length));
+    }
+
+    private static boolean isInlined(long fileLength) {
+        // Small files are inlined so that executors never fetch them from storage
+        return fileLength <= STORAGE_INLINE_FILE_THRESHOLD_KB * 1024L;
+    }
+
+    private static void readFully(FileChannel channel, byte[] dst, long pos) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(dst);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, pos + buffer.position()) < 0) {
+                throw new EOFException("Unexpected end of file: " + channel);
+            }
+        }
+    }
+
+    synchronized void addFile(String name, String prefixedName, long fileLength,
+        String versionId, byte[] header, byte[] footer) {
         File file = new File(prefixedName, fileLength, versionId, meta.getCurrentPrefixId());
+        // Kept in the metadata so that readers can be opened without reading object bodies
+        file.setHeader(header);
+        file.setFooter(footer);
+        putFile(name, file);
+    }
+
+    private void addFile(String name, String prefixedName, long fileLength, String versionId,
+        byte[] fullBytes) {
+        File file = new File(prefixedName, fileLength, versionId, meta.getCurrentPrefixId());
+        file.setFullBytes(fullBytes);
+        putFile(name, file);
+    }
+
+    // Synchronized since merged files are added from merge threads
+    private synchronized void putFile(String name, File file) {
         meta.getFileMap().put(name, file);
-        meta.setTotalSize(meta.getTotalSize() + fileLength);
+        meta.setTotalSize(meta.getTotalSize() + file.getSize());
     }
 
-    private void removeFile(String name) {
+    private synchronized void removeFile(String name) {
         long fileLength = meta.getFileMap().get(name).getSize();
         meta.getFileMap().remove(name);
         meta.setTotalSize(meta.getTotalSize() - fileLength);
     }
 
-    private String getVersionId(String name) {
+    public String getVersionId(String name) {
         return meta.getFileMap().get(name).getVersionId();
     }
 
-    private String buildPrefixedName(String name) {
-        return name.startsWith("segments_") ? name : parseSegmentName(name) + "/" + name;
+    public byte[] getFullBytes(String name) {
+        return meta.getFileMap().get(name).getFullBytes();
     }
 
-    private class ReadToFileTask implements Callable<Void> {
-
-        private final String name;
-        private final Path filePath;
+    public byte[] getHeader(String name) {
+        return meta.getFileMap().get(name).getHeader();
+    }
 
-        public ReadToFileTask(String name, Path filePath) {
-            this.name = name;
-            this.filePath = filePath;
-        }
+    public byte[] getFooter(String name) {
+        return meta.getFileMap().get(name).getFooter();
+    }
 
-        @Override
-        public Void call() throws IOException {
-            ResponseInputStream<GetObjectResponse> resp = getObjectStream(name);
-            Files.copy(resp, filePath);
-            resp.close();
+    public String getObjectKey(String name) {
+        return PathBuilder.buildObjectKeyForRead(meta, name);
+    }
 
-            return null;
-        }
+    private String buildPrefixedName(String name) {
+        return name.startsWith("segments_") ? name : parseSegmentName(name) + "/" + name;
     }
 }
\ No newline at end of file
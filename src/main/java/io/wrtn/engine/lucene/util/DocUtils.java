@@ -9,6 +9,7 @@ import static io.wrtn.engine.lucene.Constants.DATA_TYPE_OBJECT;
 import static io.wrtn.engine.lucene.Constants.DATA_TYPE_TEXT;
 import static io.wrtn.engine.lucene.Constants.DATA_TYPE_VECTOR;
 import static io.wrtn.engine.lucene.Constants.DEFAULT_IGNORE_ABOVE;
+import static io.wrtn.engine.lucene.Constants.DOC_FIELD_ID;
 import static io.wrtn.engine.lucene.Constants.NESTED_FIELD_DELIMITER;
 import static io.wrtn.engine.lucene.Constants.SORT_FIELD_SUFFIX;
 import static io.wrtn.engine.lucene.Constants.VECTOR_SIMILARITY_ARRAY;
@@ -19,9 +20,14 @@ import static io.wrtn.engine.lucene.Constants.VECTOR_VALUE_SUFFIX;
 import static io.wrtn.util.JsonParser.gson;
 import static io.wrtn.util.TimeUtil.stringToTime;
 
+import com.google.gson.JsonArray;
 import com.google.gson.JsonElement;
+import com.google.gson.JsonNull;
+import com.google.gson.JsonPrimitive;
 import io.wrtn.engine.lucene.QueryResultBuilder;
+import io.wrtn.model.document.Hit;
 import io.wrtn.model.index.FieldConfig;
+import io.wrtn.util.DocumentSorter;
 import io.wrtn.util.GlobalExceptionHandler;
 import io.wrtn.util.GlobalLogger;
 import io.wrtn.util.StatusCode;
@@ -43,7 +49,12 @@ import org.apache.lucene.document.SortedDocValuesField;
 import org.apache.lucene.document.StoredField;
 import org.apache.lucene.document.StringField;
 import org.apache.lucene.document.TextField;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.ReaderUtil;
+import org.apache.lucene.index.SortedDocValues;
+import org.apache.lucene.index.StoredFields;
 import org.apache.lucene.index.VectorSimilarityFunction;
+import org.apache.lucene.search.FieldDoc;
 import org.apache.lucene.search.IndexSearcher;
 import org.apache.lucene.search.ScoreDoc;
 import org.apache.lucene.search.TopDocs;
@@ -55,21 +66,86 @@ public class DocUtils {
         boolean includeVectors, boolean includeScores, String[] fields, IndexSearcher searcher,
         String indexName) throws IOException {
         List<io.wrtn.model.document.Document> docs = new ArrayList<>();
+        StoredFields storedFields = searcher.storedFields();
+        boolean sorted = false;
         for (ScoreDoc hit : topDocs.scoreDocs) {
             io.wrtn.model.document.Document doc = new io.wrtn.model.document.Document();
             doc.setIndex(indexName);
             if (includeScores) {
                 doc.setScore(hit.score);
             }
-            doc.setDoc(QueryResultBuilder.buildDocument(searcher.storedFields()
-                .document(hit.doc), includeVectors, fields));
+            if (hit instanceof FieldDoc fieldDoc) {
+                doc.setSortValues(toSortValues(fieldDoc));
+                sorted = true;
+            }
+            doc.setDoc(QueryResultBuilder.buildDocument(storedFields.document(hit.doc),
+                includeVectors, fields));
 
             docs.add(doc);
         }
+        if (!sorted && includeScores) {
+            DocumentSorter.sortScoreTies(docs, io.wrtn.model.document.Document::getScore,
+                DocumentSorter::getId);
+        }
 
         return docs;
     }
 
+    /**
+     * Builds hits carrying only the id, the score and the sort values of each document. The id is
+     * read from its doc values so that the stored document is not decoded.
+     */
+    public static List<Hit> buildHits(TopDocs topDocs, boolean includeScores,
+        IndexSearcher searcher) throws IOException {
+        List<LeafReaderContext> leaves = searcher.getIndexReader().leaves();
+        String idDocValuesField = DOC_FIELD_ID + NESTED_FIELD_DELIMITER + SORT_FIELD_SUFFIX;
+
+        List<Hit> hits = new ArrayList<>();
+        boolean sorted = false;
+        for (ScoreDoc scoreDoc : topDocs.scoreDocs) {
+            LeafReaderContext leaf = leaves.get(ReaderUtil.subIndex(scoreDoc.doc, leaves));
+            SortedDocValues ids = leaf.reader().getSortedDocValues(idDocValuesField);
+
+            Hit hit = new Hit();
+            if (ids != null && ids.advanceExact(scoreDoc.doc - leaf.docBase)) {
+                hit.setId(ids.lookupOrd(ids.ordValue()).utf8ToString());
+            } else {
+                // Ids longer than the keyword limit have no doc values
+                hit.setId(QueryResultBuilder.buildDocument(
+                        searcher.storedFields().document(scoreDoc.doc), false, null)
+                    .get(DOC_FIELD_ID).getAsString());
+            }
+            if (includeScores) {
+                hit.setScore(scoreDoc.score);
+            }
+            if (scoreDoc instanceof FieldDoc fieldDoc) {
+                hit.setSortValues(toSortValues(fieldDoc));
+                sorted = true;
+            }
+
+            hits.add(hit);
+        }
+        if (!sorted && includeScores) {
+            DocumentSorter.sortScoreTies(hits, Hit::getScore, Hit::getId);
+        }
+
+        return hits;
+    }
+
+    private static JsonArray toSortValues(FieldDoc fieldDoc) {
+        JsonArray sortValues = new JsonArray(fieldDoc.fields.length);
+        for (Object value : fieldDoc.fields) {
+            if (value instanceof Number number) {
+                sortValues.add(new JsonPrimitive(number));
+            } else if (value instanceof BytesRef bytesRef) {
+                sortValues.add(new JsonPrimitive(bytesRef.utf8ToString()));
+            } else {
+                sortValues.add(JsonNull.INSTANCE);
+            }
+        }
+        return sortValues;
+    }
+
     public static void buildLuceneDocument(Map<String, JsonElement> doc, Document luceneDoc,
         String baseName, Map<String, FieldConfig> mappings) throws GlobalExceptionHandler {
         List<String> nestedFieldNames = new ArrayList<>();
@@ -0,0 +1,66 @@
+package io.wrtn.engine.lucene.util;
+
+import static io.wrtn.engine.lucene.Constants.DOC_FIELD_ID;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.PostingsEnum;
+import org.apache.lucene.index.Terms;
+import org.apache.lucene.index.TermsEnum;
+import org.apache.lucene.search.DocIdSetIterator;
+import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.search.TopDocs;
+import org.apache.lucene.search.TotalHits;
+import org.apache.lucene.util.Bits;
+import org.apache.lucene.util.BytesRef;
+
+/**
+ * Resolves document ids by seeking the terms dictionary of the id field in each segment, without
+ * building and scoring a query.
+ */
+public final class IdLookup {
+
+    /**
+     * Returns the live documents with the given ids in document order, without scores.
+     */
+    public static TopDocs lookup(IndexReader reader, String[] ids) throws IOException {
+        // Seeking in order keeps the terms enum moving forward through the dictionary
+        BytesRef[] terms = Arrays.stream(ids).distinct().map(BytesRef::new).sorted()
+            .toArray(BytesRef[]::new);
+
+        List<ScoreDoc> hits = new ArrayList<>();
+        for (LeafReaderContext leaf : reader.leaves()) {
+            Terms idTerms = leaf.reader().terms(DOC_FIELD_ID);
+            if (idTerms == null) {
+                continue;
+            }
+            Bits liveDocs = leaf.reader().getLiveDocs();
+
+            TermsEnum termsEnum = idTerms.iterator();
+            PostingsEnum postings = null;
+            for (BytesRef term : terms) {
+                if (!termsEnum.seekExact(term)) {
+                    continue;
+                }
+                postings = termsEnum.postings(postings, PostingsEnum.NONE);
+                for (int doc = postings.nextDoc(); doc != DocIdSetIterator.NO_MORE_DOCS;
+                    doc = postings.nextDoc()) {
+                    if (liveDocs == null || liveDocs.get(doc)) {
+                        hits.add(new ScoreDoc(leaf.docBase + doc, Float.NaN));
+                    }
+                }
+            }
+        }
+
+        // Stored fields are read faster in document order
+        ScoreDoc[] scoreDocs = hits.toArray(new ScoreDoc[0]);
+        Arrays.sort(scoreDocs, Comparator.comparingInt(hit -> hit.doc));
+        return new TopDocs(new TotalHits(scoreDocs.length, TotalHits.Relation.EQUAL_TO),
+            scoreDocs);
+    }
+}
@@ -3,7 +3,9 @@ package io.wrtn.infra.aws;
 import com.google.gson.JsonParser;
 import com.google.gson.JsonSyntaxException;
 import io.wrtn.util.GlobalLogger;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.Future;
+import software.amazon.awssdk.auth.credentials.AwsCredentialsProvider;
 import software.amazon.awssdk.auth.credentials.EnvironmentVariableCredentialsProvider;
 import software.amazon.awssdk.core.SdkBytes;
 import software.amazon.awssdk.core.client.config.SdkAdvancedAsyncClientOption;
@@ -24,32 +26,42 @@ import static io.wrtn.util.JsonParser.gson;
 
 public class Lambda {
 
-    LambdaClient lambdaSyncClient = LambdaClient.builder()
-        .region(Region.of(AWS_REGION))
-        .credentialsProvider(EnvironmentVariableCredentialsProvider.create())
-        .httpClient(AwsCrtHttpClient.builder().maxConcurrency(2000).build())
-        .overrideConfiguration(o -> o.retryStrategy(b -> b.maxAttempts(1)))
-        .build();
-
-    LambdaAsyncClient lambdaClient = LambdaAsyncClient.builder().asyncConfiguration(
-            b -> b.advancedOption(SdkAdvancedAsyncClientOption
-                    .FUTURE_COMPLETION_EXECUTOR,
-                Threads.getIOExecutor()
+    final LambdaClient lambdaSyncClient;
+    final LambdaAsyncClient lambdaClient;
+
+    public Lambda() {
+        this(EnvironmentVariableCredentialsProvider.create());
+    }
+
+    public Lambda(AwsCredentialsProvider credentialsProvider) {
+        lambdaSyncClient = LambdaClient.builder()
+            .region(Region.of(AWS_REGION))
+            .credentialsProvider(credentialsProvider)
+            .httpClient(AwsCrtHttpClient.builder().maxConcurrency(2000).build())
+            .overrideConfiguration(o -> o.retryStrategy(b -> b.maxAttempts(1)))
+            .build();
+
+        lambdaClient = LambdaAsyncClient.builder().asyncConfiguration(
+                b -> b.advancedOption(SdkAdvancedAsyncClientOption
+                        .FUTURE_COMPLETION_EXECUTOR,
+                    Threads.getIOExecutor()
+                )
             )
-        )
-        .credentialsProvider(EnvironmentVariableCredentialsProvider.create())
-        .region(Region.of(AWS_REGION))
-        .httpClient(AwsCrtAsyncHttpClient.builder().maxConcurrency(2000).build())
-        .overrideConfiguration(o -> o.retryStrategy(b -> b.maxAttempts(1)))
-        .build();
+            .credentialsProvider(credentialsProvider)
+            .region(Region.of(AWS_REGION))
+            .httpClient(AwsCrtAsyncHttpClient.builder().maxConcurrency(2000).build())
+            .overrideConfiguration(o -> o.retryStrategy(b -> b.maxAttempts(1)))
+            .build();
+    }
 
     public int getLambdaTimeoutSeconds(String name) {
         return lambdaClient.getFunctionConfiguration(GetFunctionConfigurationRequest.builder()
             .functionName(name).build()).join().timeout();
     }
 
-    public void invokeAsyncEvent(String name, String qualifier, Object payload) {
-        lambdaClient.invoke(InvokeRequest.builder()
+    public CompletableFuture<InvokeResponse> invokeAsyncEvent(String name, String qualifier,
+        Object payload) {
+        return lambdaClient.invoke(InvokeRequest.builder()
             .invocationType(InvocationType.EVENT)
             .functionName(name)
             .qualifier(qualifier)
@@ -57,7 +69,8 @@ public class Lambda {
             .build());
     }
 
-    public Future<InvokeResponse> invokeAsync(String name, String qualifier, Object payload) {
+    public CompletableFuture<InvokeResponse> invokeAsync(String name, String qualifier,
+        Object payload) {
         return lambdaClient.invoke(InvokeRequest.builder()
             .invocationType(InvocationType.REQUEST_RESPONSE)
             .functionName(name)
@@ -107,6 +120,7 @@ public class Lambda {
     }
 
     public void close() {
+        lambdaSyncClient.close();
         lambdaClient.close();
     }
 }
@@ -8,6 +8,7 @@ import io.wrtn.util.UUID;
 import java.nio.file.Path;
 import java.time.Duration;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import io.wrtn.model.index.Index;
 import java.util.concurrent.ExecutionException;
 import software.amazon.awssdk.core.ResponseBytes;
@@ -39,6 +40,8 @@ import static io.wrtn.util.PathBuilder.buildStorageShardPath;
 
 public final class S3 {
 
+    private static final int HTTP_NOT_MODIFIED = 304;
+
     S3Client s3SyncClient = S3Client.builder()
         .httpClientBuilder(AwsCrtHttpClient.builder().maxConcurrency(5000))
         .region(Region.of(AWS_REGION))
@@ -299,6 +302,24 @@ public final class S3 {
         }
     }
 
+    /**
+     * Gets an object unless its ETag matches the given one, in which case null is returned.
+     */
+    public ResponseBytes<GetObjectResponse> getObjectIfNoneMatch(String bucket, String key,
+        String eTag) {
+        try {
+            return s3Client.getObject(GetObjectRequest.builder()
+                    .bucket(bucket).key(key).ifNoneMatch(eTag).build(),
+                AsyncResponseTransformer.toBytes()).join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof S3Exception s3e
+                && s3e.statusCode() == HTTP_NOT_MODIFIED) {
+                return null;
+            }
+            throw e;
+        }
+    }
+
     public CompletableFuture<PutObjectResponse> putObjectAsync(String bucket, String key,
         final Object object) {
         return s3Client.putObject(PutObjectRequest.builder()
@@ -0,0 +1,84 @@
+package io.wrtn.lambda;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Latency histograms of the QueryExecutor of each compute node, used to decide when a slow
+ * invocation is hedged. Buckets grow geometrically so that a percentile is accurate to about a
+ * quarter of its value, and counts are halved once a histogram is full so that it follows the
+ * recent latencies of the node.
+ */
+public class ExecutorLatencies {
+
+    private static final double BUCKET_GROWTH = 1.25;
+    private static final int NUM_BUCKETS = 64;
+    private static final int MAX_SAMPLES = 1024;
+
+    private static final class Histogram {
+
+        private final int[] counts = new int[NUM_BUCKETS];
+        private int total = 0;
+
+        void record(long latencyMs) {
+            int bucket = (int) Math.ceil(
+                Math.log(Math.max(1, latencyMs)) / Math.log(BUCKET_GROWTH));
+            counts[Math.min(bucket, NUM_BUCKETS - 1)]++;
+            if (++total >= MAX_SAMPLES) {
+                total = 0;
+                for (int i = 0; i < NUM_BUCKETS; i++) {
+                    counts[i] /= 2;
+                    total += counts[i];
+                }
+            }
+        }
+
+        long percentile(double percentile) {
+            long rank = (long) Math.ceil(total * percentile / 100);
+            long seen = 0;
+            for (int i = 0; i < NUM_BUCKETS; i++) {
+                seen += counts[i];
+                if (seen >= rank) {
+                    return (long) Math.ceil(Math.pow(BUCKET_GROWTH, i));
+                }
+            }
+            return (long) Math.ceil(Math.pow(BUCKET_GROWTH, NUM_BUCKETS - 1));
+        }
+    }
+
+    private final double percentile;
+    private final int minSamples;
+
+    // Guarded by this
+    private final Map<String, Histogram> histograms;
+
+    public ExecutorLatencies(double percentile, int minSamples, int maxEntries) {
+        this.percentile = percentile;
+        this.minSamples = minSamples;
+        this.histograms = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Histogram> eldest) {
+                return size() > maxEntries;
+            }
+        };
+    }
+
+    public synchronized void record(String key, long latencyMs) {
+        histograms.computeIfAbsent(key, k -> new Histogram()).record(latencyMs);
+    }
+
+    /**
+     * Returns how long to wait for the node before hedging, or -1 if hedging is disabled or the
+     * node has too few samples yet.
+     */
+    public synchronized long getHedgeDelayMs(String key) {
+        if (percentile <= 0) {
+            return -1;
+        }
+        Histogram histogram = histograms.get(key);
+        if (histogram == null || histogram.total < minSamples) {
+            return -1;
+        }
+        return histogram.percentile(percentile);
+    }
+}
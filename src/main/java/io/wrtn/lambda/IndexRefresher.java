@@ -1,5 +1,6 @@
 package io.wrtn.lambda;
 
+import static io.wrtn.util.BinaryResultCodec.ENCODING_BINARY;
 import static io.wrtn.util.Constants.CommandType.DOCUMENT_FETCH;
 import static io.wrtn.util.Constants.CommandType.DOCUMENT_QUERY;
 import static io.wrtn.util.JsonParser.exceptionGson;
@@ -7,6 +8,7 @@ import static io.wrtn.util.JsonParser.gson;
 
 import com.amazonaws.services.lambda.runtime.Context;
 import com.amazonaws.services.lambda.runtime.RequestHandler;
+import io.wrtn.engine.lucene.HelperRegistry;
 import io.wrtn.engine.lucene.IndexRefreshHelper;
 import io.wrtn.infra.aws.EFS;
 import io.wrtn.infra.aws.Lambda;
@@ -14,9 +16,10 @@ import io.wrtn.infra.aws.S3;
 import io.wrtn.model.document.RefreshedDocs;
 import io.wrtn.model.event.RefreshEvent;
 import io.wrtn.model.index.Index;
+import io.wrtn.util.BinaryResultCodec;
 import io.wrtn.util.GlobalLogger;
+import io.wrtn.util.ResultBody;
 import java.util.Arrays;
-import java.util.HashMap;
 import java.util.Map;
 import io.wrtn.util.GlobalExceptionHandler;
 import io.wrtn.util.StatusCode;
@@ -24,7 +27,7 @@ import io.wrtn.util.StatusCode;
 public class IndexRefresher implements
     RequestHandler<Map<String, Object>, String> {
 
-    private static final Map<String, IndexRefreshHelper> helperMap = new HashMap<>();
+    private static final HelperRegistry<IndexRefreshHelper> helpers = new HelperRegistry<>();
 
     final EFS efsClient;
     final S3 s3Client;
@@ -44,6 +47,10 @@ public class IndexRefresher implements
 
         GlobalLogger.initialize(false);
         RefreshEvent event = gson.fromJson(gson.toJson(eventMap), RefreshEvent.class);
+        return handleEvent(event, context).asString();
+    }
+
+    ResultBody handleEvent(RefreshEvent event, Context context) {
         try {
             long start = System.currentTimeMillis();
 
@@ -51,30 +58,31 @@ public class IndexRefresher implements
             String indexKey = index.getProjectId() + index.getIndexName();
 
             // Make search helper components
-            IndexRefreshHelper helper = helperMap.get(indexKey);
-            if (helper == null) {
-                helper = new IndexRefreshHelper(
-                    index,
-                    efsClient,
-                    s3Client,
-                    lambdaClient
-                );
-                helperMap.put(indexKey, helper);
-            }
-
-            helper.refreshIndex(index, event.getStorageMetadata());
+            IndexRefreshHelper helper = helpers.acquire(indexKey, () -> new IndexRefreshHelper(
+                index,
+                efsClient,
+                s3Client,
+                lambdaClient
+            ));
 
             RefreshedDocs docs;
-            // Process request
-            if (event.getType().equals(DOCUMENT_QUERY)) {
-                docs = helper.query(event.getQuery(), event.getSize(),
-                    event.getIncludeVectors(), event.getSort(),
-                    event.getTrackScores(), event.getFields());
-            } else if (event.getType().equals(DOCUMENT_FETCH)) {
-                docs = helper.fetch(event.getIds(), event.getIncludeVectors(), event.getFields());
-            } else {
-                throw new GlobalExceptionHandler("Command must be one of query, fetch",
-                    StatusCode.BAD_REQUEST);
+            try {
+                helper.refreshIndex(index, event.getStorageMetadata());
+
+                // Process request
+                if (event.getType().equals(DOCUMENT_QUERY)) {
+                    docs = helper.query(event.getQuery(), event.getSize(),
+                        event.getIncludeVectors(), event.getSort(),
+                        event.getTrackScores(), event.getFields());
+                } else if (event.getType().equals(DOCUMENT_FETCH)) {
+                    docs = helper.fetch(event.getIds(), event.getIncludeVectors(),
+                        event.getFields());
+                } else {
+                    throw new GlobalExceptionHandler("Command must be one of query, fetch",
+                        StatusCode.BAD_REQUEST);
+                }
+            } finally {
+                helpers.release(indexKey, helper);
             }
 
             long took = System.currentTimeMillis() - start;
@@ -84,7 +92,13 @@ public class IndexRefresher implements
                 GlobalLogger.info("Request: " + event);
             }
 
-            return gson.toJson(docs);
+            // Encoded once written to the response
+            RefreshedDocs results = docs;
+            if (ENCODING_BINARY.equals(event.getResultEncoding())) {
+                return out -> BinaryResultCodec.encodeRefreshedDocs(results, index.getMappings(),
+                    out);
+            }
+            return out -> gson.toJson(results, out);
 
         } catch (GlobalExceptionHandler ge) {
             GlobalLogger.error("Exception: " + ge);
@@ -0,0 +1,41 @@
+package io.wrtn.lambda;
+
+import static io.wrtn.util.JsonParser.gson;
+
+import com.amazonaws.services.lambda.runtime.Context;
+import com.amazonaws.services.lambda.runtime.RequestStreamHandler;
+import io.wrtn.model.event.RefreshEvent;
+import io.wrtn.util.GlobalLogger;
+import io.wrtn.util.JsonParser;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * An IndexRefresher reading the event straight from the invocation payload, without building the
+ * intermediate map and JSON string of the RequestHandler variant. The result is encoded straight
+ * to the response, which is the same as the one of the RequestHandler variant.
+ */
+public class IndexRefresherStreamHandler implements RequestStreamHandler {
+
+    private final IndexRefresher refresher;
+
+    public IndexRefresherStreamHandler() {
+        this.refresher = new IndexRefresher();
+    }
+
+    @Override
+    public void handleRequest(InputStream input, OutputStream output, Context context)
+        throws IOException {
+        GlobalLogger.initialize(false);
+        RefreshEvent event;
+        try (Reader reader = new InputStreamReader(input, StandardCharsets.UTF_8)) {
+            event = gson.fromJson(reader, RefreshEvent.class);
+        }
+
+        JsonParser.writeJsonString(refresher.handleEvent(event, context), output);
+    }
+}
@@ -3,41 +3,57 @@ package io.wrtn.lambda;
 import com.amazonaws.services.lambda.runtime.Context;
 import com.amazonaws.services.lambda.runtime.RequestHandler;
 
+import io.wrtn.engine.lucene.HelperRegistry;
 import io.wrtn.engine.lucene.QueryExecuteHelper;
+import io.wrtn.engine.lucene.SearchResult;
+import io.wrtn.engine.lucene.index.SharedQueryCache;
+import io.wrtn.engine.lucene.store.s3.cache.fs.FSCacheManager;
 
 import io.wrtn.infra.aws.S3;
 import io.wrtn.model.event.QueryEvent;
 import io.wrtn.model.document.Document;
-import io.wrtn.model.storage.File;
+import io.wrtn.model.document.Hit;
+import io.wrtn.model.document.QueryHits;
 import io.wrtn.model.storage.StorageMetadata;
 import io.wrtn.util.*;
 
-import java.nio.file.Files;
-import java.nio.file.Path;
-import java.nio.file.Paths;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.HashMap;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
-import java.util.Map.Entry;
+import org.apache.lucene.index.QueryTimeout;
+import org.apache.lucene.index.QueryTimeoutImpl;
 import software.amazon.awssdk.core.exception.SdkException;
 import software.amazon.awssdk.services.lambda.model.LambdaException;
 import software.amazon.awssdk.services.s3.model.S3Exception;
 
 import static io.wrtn.infra.aws.Constants.S3.INDEX_BUCKET;
+import static io.wrtn.util.BinaryResultCodec.ENCODING_BINARY;
 import static io.wrtn.util.Constants.CommandType.DOCUMENT_FETCH;
 import static io.wrtn.util.Constants.CommandType.DOCUMENT_QUERY;
+import static io.wrtn.util.Constants.CommandType.DOCUMENT_QUERY_HITS;
+import static io.wrtn.util.Constants.CommandType.QUERY_EXECUTOR_WARMUP;
+import static io.wrtn.util.Constants.Config.QUERY_EXECUTOR_WARMUP_MAX_INDEXES;
+import static io.wrtn.util.Constants.Config.QUERY_EXECUTOR_WARMUP_QUERIES;
 
-import static io.wrtn.util.Constants.Config.FS_TEMP_PATH;
-import static io.wrtn.util.Constants.Config.TEMPORARY_SHARD_ID;
 import static io.wrtn.util.JsonParser.exceptionGson;
 import static io.wrtn.util.JsonParser.gson;
-import static org.apache.lucene.index.IndexFileNames.SEGMENTS;
 
 public class QueryExecutor implements
     RequestHandler<Map<String, Object>, String> {
 
-    // TODO: Max QueryExecuteHelper instances to limit memory usage
-    private static final Map<String, QueryExecuteHelper> helperMap = new HashMap<>();
+    private static final HelperRegistry<QueryExecuteHelper> helpers = new HelperRegistry<>();
+    // Recent queries of the most recently queried indexes, replayed on warm-up
+    private static final Map<String, Deque<QueryEvent>> recentQueries = new LinkedHashMap<>(
+        16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Deque<QueryEvent>> eldest) {
+            return size() > QUERY_EXECUTOR_WARMUP_MAX_INDEXES;
+        }
+    };
     final S3 s3Client;
 
     public QueryExecutor() {
@@ -51,34 +67,27 @@ public class QueryExecutor implements
     ) {
         GlobalLogger.initialize(false);
         QueryEvent queryEvent = gson.fromJson(gson.toJson(queryEventMap), QueryEvent.class);
+        return handleEvent(queryEvent, context).asString();
+    }
+
+    ResultBody handleEvent(QueryEvent queryEvent, Context context) {
         try {
             long start = System.currentTimeMillis();
+            // Counted from the arrival of the event, opening the snapshot included
+            QueryTimeout timeout = queryEvent.getTimeoutMs() > 0
+                ? new QueryTimeoutImpl(queryEvent.getTimeoutMs()) : null;
 
             String projectId = queryEvent.getProjectId();
             String indexName = queryEvent.getIndexName();
             String indexKey = projectId + indexName + queryEvent.getMetaObjectKey();
 
             // Make search helper components
-            QueryExecuteHelper queryExecuteHelper = helperMap.get(indexKey);
-            if (queryExecuteHelper == null) {
+            QueryExecuteHelper queryExecuteHelper = helpers.acquire(indexKey, () -> {
                 StorageMetadata meta = gson.fromJson(s3Client.getVersionedObject(INDEX_BUCKET,
                         queryEvent.getMetaObjectKey(), queryEvent.getMetaObjectVersionId())
                     .asUtf8String(), StorageMetadata.class);
 
-                // Write segments_N bytes to local disk
-                for (Entry<String, File> entry : meta.getFileMap().entrySet()) {
-                    String name = entry.getKey();
-                    if (name.contains(SEGMENTS)) {
-                        File segmentFile = entry.getValue();
-                        Path localPath = Paths.get(PathBuilder.buildFsCachePath(
-                            FS_TEMP_PATH, projectId, indexName, TEMPORARY_SHARD_ID) + name);
-                        Files.createDirectories(localPath.getParent());
-                        Files.write(localPath, segmentFile.getFullBytes());
-                        break;
-                    }
-                }
-
-                queryExecuteHelper = new QueryExecuteHelper(
+                return new QueryExecuteHelper(
                     projectId,
                     indexName,
                     queryEvent.getMappings(),
@@ -86,32 +95,55 @@ public class QueryExecutor implements
                     queryEvent.getMetaObjectVersionId(),
                     s3Client
                 );
-                helperMap.put(indexKey, queryExecuteHelper);
-            } else {
-                if (!queryEvent.getMetaObjectVersionId()
-                    .equals(queryExecuteHelper.getSnapshotVersionId())) {
+            });
+
+            Document[] docs = null;
+            Hit[] hits = null;
+            boolean timedOut = false;
+            try {
+                if (queryExecuteHelper.needsSnapshot(queryEvent.getMetaObjectVersionId())) {
                     StorageMetadata meta = gson.fromJson(s3Client.getVersionedObject(INDEX_BUCKET,
                             queryEvent.getMetaObjectKey(), queryEvent.getMetaObjectVersionId())
                         .asUtf8String(), StorageMetadata.class);
 
                     queryExecuteHelper.updateIfChanged(meta, queryEvent.getMetaObjectVersionId());
                 }
-            }
+                queryExecuteHelper.awaitSnapshot(queryEvent.getMetaObjectVersionId(),
+                    queryEvent.getConsistentRead());
 
-            Document[] docs;
-            // Process request
-            if (queryEvent.getType().equals(DOCUMENT_QUERY)) {
-                docs = queryExecuteHelper.query(queryEvent.getQuery(),
-                    queryEvent.getSize(), queryEvent.getIncludeVectors(), queryEvent.getSort(),
-                    queryEvent.getTrackScores(), queryEvent.getFields());
+                // Process request
+                if (queryEvent.getType().equals(DOCUMENT_QUERY)) {
+                    SearchResult<Document[]> result = queryExecuteHelper.query(
+                        queryEvent.getQuery(), queryEvent.getSize(),
+                        queryEvent.getIncludeVectors(), queryEvent.getSort(),
+                        queryEvent.getTrackScores(), queryEvent.getFields(), timeout);
+                    docs = result.results();
+                    timedOut = result.timedOut();
+                    recordQuery(queryEvent);
 
-            } else if (queryEvent.getType().equals(DOCUMENT_FETCH)) {
-                docs = queryExecuteHelper.fetch(queryEvent.getIds(),
-                    queryEvent.getIncludeVectors(), queryEvent.getFields());
+                } else if (queryEvent.getType().equals(DOCUMENT_QUERY_HITS)) {
+                    SearchResult<Hit[]> result = queryExecuteHelper.queryHits(
+                        queryEvent.getQuery(), queryEvent.getSize(), queryEvent.getSort(),
+                        queryEvent.getTrackScores(), timeout);
+                    hits = result.results();
+                    timedOut = result.timedOut();
+                    recordQuery(queryEvent);
 
-            } else {
-                throw new GlobalExceptionHandler("Command must be one of query, fetch",
-                    StatusCode.BAD_REQUEST);
+                } else if (queryEvent.getType().equals(DOCUMENT_FETCH)) {
+                    docs = queryExecuteHelper.fetch(queryEvent.getIds(),
+                        queryEvent.getIncludeVectors(), queryEvent.getFields());
+
+                } else if (queryEvent.getType().equals(QUERY_EXECUTOR_WARMUP)) {
+                    // The snapshot has been opened above
+                    replayRecentQueries(queryEvent, queryExecuteHelper);
+                    docs = new Document[0];
+
+                } else {
+                    throw new GlobalExceptionHandler("Command must be one of query, fetch",
+                        StatusCode.BAD_REQUEST);
+                }
+            } finally {
+                helpers.release(indexKey, queryExecuteHelper);
             }
 
             long took = System.currentTimeMillis() - start;
@@ -119,9 +151,30 @@ public class QueryExecutor implements
                 GlobalLogger.warn("Query execution took " + took + "ms requestId: "
                     + context.getAwsRequestId());
                 GlobalLogger.info("Request: " + queryEvent);
+                GlobalLogger.info("FS cache: " + FSCacheManager.getInstance().getStats());
+                GlobalLogger.info("Search executor: " + Threads.getCPUExecutorStats());
+                GlobalLogger.info("Query cache: " + SharedQueryCache.getStats());
+                GlobalLogger.info("Helpers: " + helpers.size() + " using "
+                    + helpers.getUsedBytes() + " bytes");
             }
 
-            return gson.toJson(docs);
+            if (timedOut) {
+                GlobalLogger.warn("Query timed out after " + queryEvent.getTimeoutMs()
+                    + "ms, returning partial results requestId: " + context.getAwsRequestId());
+            }
+
+            // Encoded once written to the response
+            if (hits != null) {
+                QueryHits queryHits = new QueryHits(hits, timedOut);
+                return out -> JsonParser.writeHits(queryHits, out);
+            }
+            Document[] results = docs;
+            boolean partial = timedOut;
+            if (ENCODING_BINARY.equals(queryEvent.getResultEncoding())) {
+                return out -> BinaryResultCodec.encodeDocuments(results,
+                    queryEvent.getMappings(), partial, out);
+            }
+            return out -> gson.toJson(results, out);
 
         } catch (GlobalExceptionHandler ge) {
             GlobalLogger.error("Exception: " + ge);
@@ -186,4 +239,46 @@ public class QueryExecutor implements
                     GlobalExceptionHandler.class));
         }
     }
-}
\ No newline at end of file
+
+    private static void recordQuery(QueryEvent queryEvent) {
+        if (QUERY_EXECUTOR_WARMUP_QUERIES <= 0) {
+            return;
+        }
+
+        synchronized (recentQueries) {
+            Deque<QueryEvent> queries = recentQueries.computeIfAbsent(
+                queryEvent.getProjectId() + queryEvent.getIndexName(), k -> new ArrayDeque<>());
+            queries.addFirst(queryEvent);
+            if (queries.size() > QUERY_EXECUTOR_WARMUP_QUERIES) {
+                queries.removeLast();
+            }
+        }
+    }
+
+    /**
+     * Runs the recent queries of the index against the new snapshot so that the files they touch
+     * are cached before user queries arrive. Results are discarded.
+     */
+    private static void replayRecentQueries(QueryEvent warmupEvent,
+        QueryExecuteHelper queryExecuteHelper) {
+        List<QueryEvent> queries;
+        synchronized (recentQueries) {
+            Deque<QueryEvent> recent = recentQueries.get(
+                warmupEvent.getProjectId() + warmupEvent.getIndexName());
+            if (recent == null) {
+                return;
+            }
+            queries = new ArrayList<>(recent);
+        }
+
+        for (QueryEvent queryEvent : queries) {
+            try {
+                queryExecuteHelper.query(queryEvent.getQuery(), queryEvent.getSize(),
+                    queryEvent.getIncludeVectors(), queryEvent.getSort(),
+                    queryEvent.getTrackScores(), queryEvent.getFields(), null);
+            } catch (Exception e) {
+                GlobalLogger.warn("Failed to replay query on warm-up: " + e);
+            }
+        }
+    }
+}
@@ -0,0 +1,41 @@
+package io.wrtn.lambda;
+
+import static io.wrtn.util.JsonParser.gson;
+
+import com.amazonaws.services.lambda.runtime.Context;
+import com.amazonaws.services.lambda.runtime.RequestStreamHandler;
+import io.wrtn.model.event.QueryEvent;
+import io.wrtn.util.GlobalLogger;
+import io.wrtn.util.JsonParser;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * A QueryExecutor reading the event straight from the invocation payload, without building the
+ * intermediate map and JSON string of the RequestHandler variant. The result is encoded straight
+ * to the response, which is the same as the one of the RequestHandler variant.
+ */
+public class QueryExecutorStreamHandler implements RequestStreamHandler {
+
+    private final QueryExecutor executor;
+
+    public QueryExecutorStreamHandler() {
+        this.executor = new QueryExecutor();
+    }
+
+    @Override
+    public void handleRequest(InputStream input, OutputStream output, Context context)
+        throws IOException {
+        GlobalLogger.initialize(false);
+        QueryEvent queryEvent;
+        try (Reader reader = new InputStreamReader(input, StandardCharsets.UTF_8)) {
+            queryEvent = gson.fromJson(reader, QueryEvent.class);
+        }
+
+        JsonParser.writeJsonString(executor.handleEvent(queryEvent, context), output);
+    }
+}
@@ -0,0 +1,172 @@
+package io.wrtn.lambda;
+
+import static io.wrtn.util.JsonParser.gson;
+
+import com.google.gson.JsonObject;
+import io.wrtn.dto.QueryRequest;
+import io.wrtn.dto.QueryResponse;
+import io.wrtn.model.index.Index;
+import io.wrtn.model.storage.ComputeNode;
+import io.wrtn.model.storage.File;
+import io.wrtn.model.storage.StorageMetadata;
+import io.wrtn.util.JsonParser;
+import io.wrtn.util.PathBuilder;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Caches query responses of the most recently used requests, bounded by their approximate size.
+ * An entry is only valid for the snapshot it was computed on, identified by the version ids of
+ * the partition metadata, and the entries of an index are dropped once its data is updated.
+ */
+public class QueryResultCache {
+
+    private record Entry(String indexKey, String snapshotKey, QueryResponse response,
+                         long bytes) {
+
+    }
+
+    private final long maxBytes;
+
+    // Guarded by this
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private final Map<String, Long> dataUpdatedAts = new HashMap<>();
+    private long bytes = 0;
+
+    public QueryResultCache(long maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    public boolean isEnabled() {
+        return maxBytes > 0;
+    }
+
+    /**
+     * Returns a copy of the cached response to the request on the given snapshot, or null.
+     */
+    public QueryResponse get(QueryRequest request, Index index, StorageMetadata meta) {
+        String indexKey = buildIndexKey(index);
+        String key = indexKey + buildRequestHash(request, index);
+        String snapshotKey = buildSnapshotKey(meta);
+
+        Entry entry;
+        synchronized (this) {
+            invalidateIfUpdated(indexKey, index.getDataUpdatedAt());
+            entry = entries.get(key);
+            if (entry == null) {
+                return null;
+            } else if (!entry.snapshotKey().equals(snapshotKey)) {
+                remove(key);
+                return null;
+            }
+        }
+
+        QueryResponse cached = entry.response();
+        QueryResponse response = new QueryResponse();
+        response.setMaxScore(cached.getMaxScore());
+        response.setTotal(cached.getTotal());
+        response.setDocs(cached.getDocs().clone());
+        response.setFailures(cached.getFailures());
+        response.setTimedOut(cached.getTimedOut());
+        return response;
+    }
+
+    public void put(QueryRequest request, Index index, StorageMetadata meta,
+        QueryResponse response) {
+        String indexKey = buildIndexKey(index);
+        String key = indexKey + buildRequestHash(request, index);
+        // Approximated by the serialized size, two bytes per character
+        long size = 2L * (key.length() + gson.toJson(response.getDocs()).length());
+        if (size > maxBytes) {
+            return;
+        }
+
+        synchronized (this) {
+            invalidateIfUpdated(indexKey, index.getDataUpdatedAt());
+            if (dataUpdatedAts.get(indexKey) > index.getDataUpdatedAt()) {
+                // Computed on a snapshot older than the cached entries
+                return;
+            }
+            remove(key);
+            entries.put(key, new Entry(indexKey, buildSnapshotKey(meta), response, size));
+            bytes += size;
+
+            Iterator<Entry> it = entries.values().iterator();
+            while (bytes > maxBytes && it.hasNext()) {
+                bytes -= it.next().bytes();
+                it.remove();
+            }
+        }
+    }
+
+    private void invalidateIfUpdated(String indexKey, long dataUpdatedAt) {
+        Long cachedDataUpdatedAt = dataUpdatedAts.get(indexKey);
+        if (cachedDataUpdatedAt != null && cachedDataUpdatedAt >= dataUpdatedAt) {
+            return;
+        }
+        dataUpdatedAts.put(indexKey, dataUpdatedAt);
+        if (cachedDataUpdatedAt == null) {
+            return;
+        }
+
+        Iterator<Entry> it = entries.values().iterator();
+        while (it.hasNext()) {
+            Entry entry = it.next();
+            if (entry.indexKey().equals(indexKey)) {
+                bytes -= entry.bytes();
+                it.remove();
+            }
+        }
+    }
+
+    private void remove(String key) {
+        Entry removed = entries.remove(key);
+        if (removed != null) {
+            bytes -= removed.bytes();
+        }
+    }
+
+    private static String buildIndexKey(Index index) {
+        return index.getProjectId() + "/" + index.getIndexName() + "/";
+    }
+
+    private static String buildSnapshotKey(StorageMetadata meta) {
+        StringBuilder sb = new StringBuilder();
+        for (ComputeNode node : meta.getComputeNodes()) {
+            File partitionMeta = meta.getFileMap().get(
+                PathBuilder.buildPartitionMetaName(node.getNodeId()));
+            sb.append(node.getNodeId()).append(':')
+                .append(partitionMeta == null ? null : partitionMeta.getVersionId()).append(',');
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Hashes everything the response depends on besides the snapshot. Object keys are sorted so
+     * that the same query written in a different order shares the entry.
+     */
+    private static String buildRequestHash(QueryRequest request, Index index) {
+        JsonObject normalized = new JsonObject();
+        normalized.add("query", request.getQuery());
+        normalized.add("sort", request.getSort());
+        normalized.add("fields", gson.toJsonTree(request.getFields()));
+        normalized.addProperty("size", request.getSize());
+        normalized.addProperty("trackScores", request.getTrackScores());
+        normalized.addProperty("includeVectors", request.getIncludeVectors());
+        normalized.add("mappings", gson.toJsonTree(index.getMappings()));
+
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            return HexFormat.of().formatHex(digest.digest(
+                JsonParser.normalize(normalized).getBytes(StandardCharsets.UTF_8)));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
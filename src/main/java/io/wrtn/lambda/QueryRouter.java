@@ -3,6 +3,7 @@ package io.wrtn.lambda;
 import com.google.gson.JsonObject;
 import io.wrtn.dto.FetchRequest;
 import io.wrtn.dto.FetchResponse;
+import io.wrtn.dto.NodeFailure;
 import io.wrtn.dto.QueryRequest;
 import io.wrtn.dto.QueryResponse;
 import io.wrtn.model.event.RefreshEvent;
@@ -10,19 +11,31 @@ import io.wrtn.model.storage.ComputeNode;
 import io.wrtn.model.storage.StorageMetadata;
 import io.wrtn.infra.aws.Lambda;
 import io.wrtn.infra.aws.S3;
+import io.wrtn.util.DocumentSorter;
+import io.wrtn.util.GlobalLogger;
+import io.wrtn.util.SortedRunMerger;
 import io.wrtn.util.Threads;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
-import java.util.Map;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
-import java.util.concurrent.Callable;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutionException;
-import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
 import io.wrtn.model.document.RefreshedDocs;
 import io.wrtn.model.event.QueryEvent;
 import io.wrtn.model.document.Document;
+import io.wrtn.model.document.Hit;
+import io.wrtn.model.index.FieldConfig;
 import io.wrtn.model.index.Index;
 import io.wrtn.model.storage.File;
 import io.wrtn.util.GlobalExceptionHandler;
@@ -31,29 +44,35 @@ import io.wrtn.util.PathBuilder;
 import io.wrtn.util.StatusCode;
 
 import java.util.Date;
-import software.amazon.awssdk.core.ResponseBytes;
-import software.amazon.awssdk.services.lambda.model.InvokeResponse;
-import software.amazon.awssdk.services.s3.model.GetObjectResponse;
 
 import static io.wrtn.engine.lucene.Constants.DOC_FIELD_ID;
 import static io.wrtn.engine.lucene.util.Validation.validateQuery;
 import static io.wrtn.engine.lucene.util.Validation.validateSort;
 import static io.wrtn.infra.aws.Constants.S3.INDEX_BUCKET;
+import static io.wrtn.util.BinaryResultCodec.ENCODING_BINARY;
 import static io.wrtn.util.Constants.CommandType.DOCUMENT_FETCH;
 import static io.wrtn.util.Constants.CommandType.DOCUMENT_QUERY;
+import static io.wrtn.util.Constants.CommandType.DOCUMENT_QUERY_HITS;
 import static io.wrtn.util.Constants.Config.*;
 import static io.wrtn.util.Constants.Limits.MAX_DOCUMENTS_TO_FETCH;
 import static io.wrtn.util.Constants.Limits.MAX_DOCUMENTS_TO_QUERY;
+import static io.wrtn.util.DocumentSorter.createDocumentComparator;
+import static io.wrtn.util.DocumentSorter.createHitComparator;
+import static io.wrtn.util.DocumentSorter.getReplacedIds;
 import static io.wrtn.util.DocumentSorter.mergeDocs;
 import static io.wrtn.util.DocumentSorter.mergeWithRefreshedDocs;
-import static io.wrtn.util.DocumentSorter.sortDocuments;
 import static io.wrtn.util.JsonParser.gson;
 import static io.wrtn.util.PathBuilder.buildQueryExecutorName;
 
 public class QueryRouter {
 
-    // TODO: Max entries to limit memory usage
-    private static final Map<String, StorageMetadata> cachedMetaMap = new HashMap<>();
+    private static final StorageMetadataCache metaCache = new StorageMetadataCache(
+        STORAGE_METADATA_CACHE_MAX_ENTRIES);
+    private static final ExecutorLatencies executorLatencies = new ExecutorLatencies(
+        QUERY_ROUTER_HEDGE_PERCENTILE, QUERY_ROUTER_HEDGE_MIN_SAMPLES,
+        STORAGE_METADATA_CACHE_MAX_ENTRIES);
+    private static final QueryResultCache resultCache = new QueryResultCache(
+        QUERY_ROUTER_RESULT_CACHE_SIZE_MB * 1024L * 1024L);
 
     private final S3 s3Client;
     private final Lambda lambdaClient;
@@ -67,6 +86,7 @@ public class QueryRouter {
         throws GlobalExceptionHandler {
 
         assert index != null && meta != null && query != null;
+        metaCache.put(index, meta);
 
         List<Document[]> docs = new ArrayList<>();
         if (index.getDataUpdatedAt() > 0) {
@@ -95,13 +115,16 @@ public class QueryRouter {
                 event.setMetaObjectKey(
                     PathBuilder.buildObjectKeyForRead(meta, partitionMeta.getName()));
                 event.setMetaObjectVersionId(partitionMeta.getVersionId());
+                event.setResultEncoding(ENCODING_BINARY);
                 event.setFields(new String[]{DOC_FIELD_ID});
+                // Refreshed documents are merged against this exact snapshot
+                event.setConsistentRead(true);
 
                 queryEvents.add(event);
             }
 
             // Invoke QueryExecutor concurrently
-            docs = invokeQueryExecutorSyncParallel(queryEvents);
+            docs = invokeQueryExecutors(queryEvents, JsonParser::parseDocuments);
         }
 
         // Merge and sort documents by score
@@ -129,9 +152,13 @@ public class QueryRouter {
             throw new GlobalExceptionHandler(
                 "At least one field must be provided in the fields array",
                 StatusCode.INVALID_INPUT_VALUE);
+        } else if (request.getTimeoutMs() != null && request.getTimeoutMs() <= 0) {
+            throw new GlobalExceptionHandler("Timeout must be greater than 0",
+                StatusCode.INVALID_INPUT_VALUE);
         }
 
         long queryStartMs = new Date().getTime();
+        QueryProgress progress = new QueryProgress(request.getTimeoutMs(), queryStartMs);
 
         // Run query, sort builder for validation
         if (request.getSort() != null) {
@@ -148,12 +175,26 @@ public class QueryRouter {
             validateQuery(request.getQuery(), index.getMappings());
         }
 
-        List<Document[]> docs = new ArrayList<>();
+        SortedRunMerger<Document> merger = new SortedRunMerger<>(
+            createDocumentComparator(request.getSort(), index.getMappings()), request.getSize(),
+            DocumentSorter::getId);
+        List<NodeCall> pipeline = new ArrayList<>();
+        Document[] twoPhaseDocs = null;
         StorageMetadata meta = null;
+        // Consistent reads include unindexed documents, which the snapshot does not identify
+        boolean isCacheable = resultCache.isEnabled() && !request.getConsistentRead();
         if (index.getDataUpdatedAt() > 0) {
             List<QueryEvent> queryEvents = new ArrayList<>();
             meta = getStorageMeta(index);
 
+            if (isCacheable) {
+                QueryResponse cached = resultCache.get(request, index, meta);
+                if (cached != null) {
+                    cached.setTook(new Date().getTime() - queryStartMs);
+                    return cached;
+                }
+            }
+
             for (ComputeNode node : meta.getComputeNodes()) {
                 if (node.getSegmentIds().isEmpty()) {
                     continue;
@@ -180,19 +221,30 @@ public class QueryRouter {
                     event.setSize(request.getSize());
                 }
                 event.setIncludeVectors(request.getIncludeVectors());
+                event.setConsistentRead(request.getConsistentRead());
                 event.setComputeNodeId(node.getNodeId());
                 event.setMetaObjectKey(
                     PathBuilder.buildObjectKeyForRead(meta, partitionMeta.getName()));
                 event.setMetaObjectVersionId(partitionMeta.getVersionId());
+                event.setResultEncoding(ENCODING_BINARY);
+                event.setTimeoutMs(progress.getRemainingMs());
 
                 queryEvents.add(event);
             }
 
-            // Invoke QueryExecutor concurrently
-            docs = invokeQueryExecutorSyncParallel(queryEvents);
+            // Invoke QueryExecutor concurrently and merge the results in order
+            if (isTwoPhase(request, queryEvents)) {
+                twoPhaseDocs = queryThenFetch(queryEvents, request, index.getMappings(),
+                    progress);
+            } else {
+                for (QueryEvent event : queryEvents) {
+                    pipeline.add(new NodeCall(event.getComputeNodeId(),
+                        invokeQueryExecutorAsync(event, json -> parseDocuments(json, event, progress))
+                            .thenAccept(merger::addRun)));
+                }
+            }
         }
 
-        Future<InvokeResponse> refreshedDocsFuture = null;
         if (request.getConsistentRead()) {
             RefreshEvent event = new RefreshEvent();
             event.setType(DOCUMENT_QUERY);
@@ -203,28 +255,17 @@ public class QueryRouter {
             event.setFields(request.getFields());
             event.setIncludeVectors(request.getIncludeVectors());
             event.setStorageMetadata(meta);
-            refreshedDocsFuture =
-                lambdaClient.invokeAsync(INDEX_REFRESHER_NAME, INDEX_REFRESHER_QUALIFIER, event);
+            event.setResultEncoding(ENCODING_BINARY);
+            pipeline.add(new NodeCall(null, invokeAsync(INDEX_REFRESHER_NAME,
+                INDEX_REFRESHER_QUALIFIER, event, JsonParser::parseRefreshedDocs)
+                .thenAccept(refreshedDocs -> merger.addReplacingRun(refreshedDocs.getDocuments(),
+                    getReplacedIds(refreshedDocs)))));
         }
 
-        // Merge and sort documents by score
-        Document[] mergedDocs;
-        try {
-            if (request.getConsistentRead()) {
-                assert refreshedDocsFuture != null;
-                InvokeResponse resp = refreshedDocsFuture.get();
-                lambdaClient.validateResponse(resp);
-                RefreshedDocs refreshedDocs = JsonParser.parseRefreshedDocs(
-                    resp.payload().asUtf8String());
-
-                mergedDocs = sortDocuments(docs, refreshedDocs, index.getMappings(), request);
-            } else {
-                mergedDocs = sortDocuments(docs, null, index.getMappings(), request);
-            }
-        } catch (ExecutionException | InterruptedException e) {
-            throw new GlobalExceptionHandler("Failed to refresh documents: " + e.getMessage(),
-                StatusCode.SERVER_ERROR);
-        }
+        await(pipeline, progress);
+        // Two-phase results are already merged in order
+        Document[] mergedDocs = twoPhaseDocs != null ? twoPhaseDocs
+            : merger.getResult().toArray(new Document[0]);
 
         Float maxScore;
         if (request.getSort() == null) {
@@ -246,6 +287,12 @@ public class QueryRouter {
             queryResult.setMaxScore(maxScore);
         }
         queryResult.setDocs(mergedDocs);
+        queryResult.setFailures(progress.getFailures());
+        queryResult.setTimedOut(progress.isTimedOut());
+
+        if (isCacheable && meta != null && queryResult.getFailures().length == 0) {
+            resultCache.put(request, index, meta, queryResult);
+        }
 
         return queryResult;
     }
@@ -271,7 +318,7 @@ public class QueryRouter {
 
         long queryStartMs = new Date().getTime();
 
-        List<Document[]> docs = new ArrayList<>();
+        List<CompletableFuture<Document[]>> docsFutures = new ArrayList<>();
         StorageMetadata meta = null;
         if (index.getDataUpdatedAt() > 0) {
             meta = getStorageMeta(index);
@@ -296,19 +343,23 @@ public class QueryRouter {
                 event.setIds(request.getIds());
                 event.setIncludeVectors(request.getIncludeVectors());
                 event.setFields(request.getFields());
+                event.setConsistentRead(request.getConsistentRead());
                 event.setComputeNodeId(node.getNodeId());
                 event.setMetaObjectKey(
                     PathBuilder.buildObjectKeyForRead(meta, partitionMeta.getName()));
                 event.setMetaObjectVersionId(partitionMeta.getVersionId());
+                event.setResultEncoding(ENCODING_BINARY);
 
                 queryEvents.add(event);
             }
 
             // Invoke QueryExecutor concurrently
-            docs = invokeQueryExecutorSyncParallel(queryEvents);
+            for (QueryEvent event : queryEvents) {
+                docsFutures.add(invokeQueryExecutorAsync(event, JsonParser::parseDocuments));
+            }
         }
 
-        Future<InvokeResponse> refreshedDocsFuture = null;
+        CompletableFuture<RefreshedDocs> refreshedDocsFuture = null;
         if (request.getConsistentRead()) {
             RefreshEvent event = new RefreshEvent();
             event.setType(DOCUMENT_FETCH);
@@ -317,25 +368,23 @@ public class QueryRouter {
             event.setIncludeVectors(request.getIncludeVectors());
             event.setFields(request.getFields());
             event.setStorageMetadata(meta);
-            refreshedDocsFuture =
-                lambdaClient.invokeAsync(INDEX_REFRESHER_NAME, INDEX_REFRESHER_QUALIFIER, event);
+            event.setResultEncoding(ENCODING_BINARY);
+            refreshedDocsFuture = invokeAsync(INDEX_REFRESHER_NAME, INDEX_REFRESHER_QUALIFIER,
+                event, JsonParser::parseRefreshedDocs);
+        }
+
+        List<CompletableFuture<?>> pipeline = new ArrayList<>(docsFutures);
+        if (refreshedDocsFuture != null) {
+            pipeline.add(refreshedDocsFuture);
         }
+        await(pipeline);
 
+        List<Document[]> docs = docsFutures.stream().map(CompletableFuture::join).toList();
         Document[] mergedDocs;
-        try {
-            if (request.getConsistentRead()) {
-                assert refreshedDocsFuture != null;
-                InvokeResponse resp = refreshedDocsFuture.get();
-                lambdaClient.validateResponse(resp);
-                RefreshedDocs refreshedDocs = JsonParser.parseRefreshedDocs(
-                    resp.payload().asUtf8String());
-                mergedDocs = mergeWithRefreshedDocs(docs, refreshedDocs);
-            } else {
-                mergedDocs = mergeDocs(docs);
-            }
-        } catch (ExecutionException | InterruptedException e) {
-            throw new GlobalExceptionHandler("Failed to refresh documents: " + e.getMessage(),
-                StatusCode.SERVER_ERROR);
+        if (refreshedDocsFuture != null) {
+            mergedDocs = mergeWithRefreshedDocs(docs, refreshedDocsFuture.join());
+        } else {
+            mergedDocs = mergeDocs(docs);
         }
 
         FetchResponse fetchResult = new FetchResponse();
@@ -347,76 +396,323 @@ public class QueryRouter {
     }
 
     private StorageMetadata getStorageMeta(Index index) throws GlobalExceptionHandler {
-        String indexKey = index.getProjectId() + index.getIndexName();
-        StorageMetadata meta = cachedMetaMap.get(indexKey);
-        if (meta == null || meta.getDataUpdatedAt() < index.getDataUpdatedAt()) {
-            ResponseBytes<GetObjectResponse> resp = s3Client.tryGetObject(INDEX_BUCKET,
-                PathBuilder.buildMetaKey(index, TEMPORARY_SHARD_ID));
-            if (resp == null) {
-                throw new GlobalExceptionHandler("Index is not active",
-                    StatusCode.NOT_FOUND);
-            }
+        return metaCache.get(index, s3Client);
+    }
+
+    /**
+     * Queries in two phases when more than one compute node is involved: only the ids, scores
+     * and sort values are returned by every node, and the stored fields of the merged top
+     * documents are then fetched from the nodes owning them. Consistent reads merge full
+     * documents with the refreshed ones, so they are queried in a single phase.
+     */
+    private static boolean isTwoPhase(QueryRequest request, List<QueryEvent> queryEvents) {
+        return QUERY_ROUTER_TWO_PHASE && !request.getConsistentRead() && queryEvents.size() > 1;
+    }
 
-            meta = gson.fromJson(resp.asUtf8String(), StorageMetadata.class);
+    private Document[] queryThenFetch(List<QueryEvent> queryEvents, QueryRequest request,
+        Map<String, FieldConfig> mappings, QueryProgress progress)
+        throws GlobalExceptionHandler {
 
-            cachedMetaMap.put(indexKey, meta);
+        // Query phase, leaving part of the deadline to fetch the hits found in time
+        if (progress.hasDeadline()) {
+            progress.reserve(Math.min(QUERY_ROUTER_FETCH_MIN_BUDGET_MS,
+                request.getTimeoutMs() / 2));
+        }
+        for (QueryEvent event : queryEvents) {
+            event.setType(DOCUMENT_QUERY_HITS);
+            event.setTimeoutMs(progress.getRemainingMs());
+        }
+        SortedRunMerger<Hit> hitMerger = new SortedRunMerger<>(
+            createHitComparator(request.getSort(), mappings), request.getSize());
+        Map<String, Integer> hitNodes = new ConcurrentHashMap<>();
+        List<NodeCall> pipeline = new ArrayList<>();
+        for (int i = 0; i < queryEvents.size(); i++) {
+            int node = i;
+            QueryEvent queryEvent = queryEvents.get(i);
+            pipeline.add(new NodeCall(queryEvent.getComputeNodeId(),
+                invokeQueryExecutorAsync(queryEvent, JsonParser::parseHits)
+                    .thenAccept(queryHits -> {
+                        if (queryHits.getTimedOut()) {
+                            progress.addPartial(queryEvent.getComputeNodeId());
+                        }
+                        for (Hit hit : queryHits.getHits()) {
+                            hitNodes.put(hit.getId(), node);
+                        }
+                        hitMerger.addRun(queryHits.getHits());
+                    })));
+        }
+        await(pipeline, progress);
+        List<Hit> topHits = hitMerger.getResult();
+
+        // Fetch phase, from the nodes owning the top documents only
+        progress.reserve(0);
+        Map<Integer, List<String>> idsByNode = new TreeMap<>();
+        for (Hit hit : topHits) {
+            idsByNode.computeIfAbsent(hitNodes.get(hit.getId()), k -> new ArrayList<>())
+                .add(hit.getId());
+        }
+
+        List<QueryEvent> fetchEvents = new ArrayList<>();
+        for (Map.Entry<Integer, List<String>> entry : idsByNode.entrySet()) {
+            QueryEvent queryEvent = queryEvents.get(entry.getKey());
+
+            QueryEvent event = new QueryEvent();
+            event.setType(DOCUMENT_FETCH);
+            event.setShardId(queryEvent.getShardId());
+            event.setProjectId(queryEvent.getProjectId());
+            event.setIndexName(queryEvent.getIndexName());
+            event.setIndexClass(queryEvent.getIndexClass());
+            event.setMappings(queryEvent.getMappings());
+            event.setIds(entry.getValue().toArray(new String[0]));
+            event.setIncludeVectors(queryEvent.getIncludeVectors());
+            event.setFields(queryEvent.getFields());
+            event.setConsistentRead(queryEvent.getConsistentRead());
+            event.setComputeNodeId(queryEvent.getComputeNodeId());
+            event.setMetaObjectKey(queryEvent.getMetaObjectKey());
+            event.setMetaObjectVersionId(queryEvent.getMetaObjectVersionId());
+            event.setResultEncoding(queryEvent.getResultEncoding());
+            event.setTimeoutMs(progress.getRemainingMs());
+
+            fetchEvents.add(event);
         }
 
-        return meta;
+        Map<String, Document> fetchedDocs = new ConcurrentHashMap<>();
+        List<NodeCall> fetchPipeline = new ArrayList<>();
+        for (QueryEvent event : fetchEvents) {
+            fetchPipeline.add(new NodeCall(event.getComputeNodeId(),
+                invokeQueryExecutorAsync(event, JsonParser::parseDocuments)
+                    .thenAccept(documents -> {
+                        for (Document document : documents) {
+                            fetchedDocs.put(document.getDoc().get(DOC_FIELD_ID).getAsString(),
+                                document);
+                        }
+                    })));
+        }
+        await(fetchPipeline, progress);
+
+        List<Document> mergedDocs = new ArrayList<>();
+        for (Hit hit : topHits) {
+            Document document = fetchedDocs.get(hit.getId());
+            if (document == null) {
+                // Deleted by a newer snapshot opened between the phases, or not fetched in time
+                continue;
+            }
+            document.setScore(hit.getScore());
+            mergedDocs.add(document);
+        }
+
+        return mergedDocs.toArray(new Document[0]);
     }
 
-    private List<Document[]> invokeQueryExecutorSyncParallel(List<QueryEvent> queryEvents)
-        throws GlobalExceptionHandler {
+    private <T> List<T> invokeQueryExecutors(List<QueryEvent> queryEvents,
+        Function<String, T> parser) throws GlobalExceptionHandler {
 
-        List<DocumentQueryTask> tasks = new ArrayList<>();
+        List<CompletableFuture<T>> futures = new ArrayList<>();
         for (QueryEvent queryEvent : queryEvents) {
-            tasks.add(new DocumentQueryTask(queryEvent, lambdaClient));
+            futures.add(invokeQueryExecutorAsync(queryEvent, parser));
         }
+        await(futures);
 
-        List<Future<Document[]>> futures;
+        return futures.stream().map(CompletableFuture::join).toList();
+    }
+
+    /**
+     * Invokes the QueryExecutor of a node, hedged with a duplicate invocation if the node has
+     * not answered within its usual latency. The first result wins and the other is discarded.
+     */
+    private <T> CompletableFuture<T> invokeQueryExecutorAsync(QueryEvent queryEvent,
+        Function<String, T> parser) {
+        String latencyKey = queryEvent.getProjectId() + queryEvent.getIndexName()
+            + queryEvent.getComputeNodeId();
+        long hedgeDelayMs = executorLatencies.getHedgeDelayMs(latencyKey);
+
+        CompletableFuture<T> primary = invokeQueryExecutorTimed(queryEvent, parser, latencyKey);
+        if (hedgeDelayMs < 0) {
+            return primary;
+        }
+
+        CompletableFuture<T> result = new CompletableFuture<>();
+        AtomicInteger pending = new AtomicInteger(1);
+        BiConsumer<T, Throwable> onComplete = (value, t) -> {
+            if (t == null) {
+                result.complete(value);
+            } else if (pending.decrementAndGet() == 0) {
+                // Fails only if every invocation has failed
+                result.completeExceptionally(t);
+            }
+        };
+        primary.whenComplete(onComplete);
+
+        CompletableFuture.runAsync(() -> {
+            if (result.isDone() || !pending.compareAndSet(1, 2)) {
+                return;
+            }
+            GlobalLogger.info("Hedging query executor " + queryEvent.getComputeNodeId()
+                + " of " + queryEvent.getIndexName() + " after " + hedgeDelayMs + "ms");
+            invokeQueryExecutorTimed(queryEvent, parser, latencyKey).whenComplete(onComplete);
+        }, CompletableFuture.delayedExecutor(hedgeDelayMs, TimeUnit.MILLISECONDS,
+            Threads.getIOExecutor()));
+
+        return result;
+    }
+
+    private <T> CompletableFuture<T> invokeQueryExecutorTimed(QueryEvent queryEvent,
+        Function<String, T> parser, String latencyKey) {
+        long start = System.currentTimeMillis();
+        return invokeAsync(
+            buildQueryExecutorName(queryEvent.getComputeNodeId(), queryEvent.getIndexClass()),
+            QUERY_EXECUTOR_QUALIFIER, queryEvent, parser)
+            .whenComplete((value, t) -> {
+                if (t == null) {
+                    executorLatencies.record(latencyKey, System.currentTimeMillis() - start);
+                }
+            });
+    }
+
+    private <T> CompletableFuture<T> invokeAsync(String name, String qualifier, Object event,
+        Function<String, T> parser) {
+        return lambdaClient.invokeAsync(name, qualifier, event).thenApply(resp -> {
+            try {
+                lambdaClient.validateResponse(resp);
+            } catch (GlobalExceptionHandler ge) {
+                throw new CompletionException(ge);
+            }
+            return parser.apply(resp.payload().asUtf8String());
+        });
+    }
+
+    private static Document[] parseDocuments(String json, QueryEvent event,
+        QueryProgress progress) {
+        if (JsonParser.isTimedOut(json)) {
+            progress.addPartial(event.getComputeNodeId());
+        }
+        return JsonParser.parseDocuments(json);
+    }
+
+    private record NodeCall(Integer computeNodeId, CompletableFuture<?> future) {
+
+    }
+
+    /**
+     * Waits for every invocation to complete or for the deadline of the query. Nodes which have
+     * not answered by then or have failed are reported, and their results are left out. The
+     * first error is rethrown only if every node has failed.
+     */
+    private static void await(List<NodeCall> calls, QueryProgress progress)
+        throws GlobalExceptionHandler {
+        CompletableFuture<?>[] futures = calls.stream().map(NodeCall::future)
+            .toArray(CompletableFuture<?>[]::new);
         try {
-             futures = Threads.getIOExecutor().invokeAll(tasks);
+            if (progress.hasDeadline()) {
+                CompletableFuture.allOf(futures)
+                    .get(progress.getRemainingMs(), TimeUnit.MILLISECONDS);
+            } else {
+                CompletableFuture.allOf(futures).get();
+            }
+        } catch (TimeoutException | ExecutionException e) {
+            // Inspected one by one below
         } catch (InterruptedException e) {
-            throw new GlobalExceptionHandler("Failed to invoke executors: " + e.getMessage(),
+            Thread.currentThread().interrupt();
+            throw new GlobalExceptionHandler("Failed to query documents: " + e.getMessage(),
                 StatusCode.SERVER_ERROR);
         }
 
-        // Gather documents from the result set
-        List<Document[]> docs = new ArrayList<>();
+        List<CompletableFuture<?>> failed = new ArrayList<>();
+        for (NodeCall call : calls) {
+            if (!call.future().isDone()) {
+                progress.addTimedOut(call.computeNodeId());
+            } else if (call.future().isCompletedExceptionally()) {
+                progress.addFailure(call.computeNodeId(),
+                    call.future().exceptionNow().getMessage());
+                failed.add(call.future());
+            }
+        }
+        if (!calls.isEmpty() && failed.size() == calls.size()) {
+            await(failed);
+        }
+    }
+
+    /**
+     * Waits for every invocation to complete, and rethrows the first error.
+     */
+    private static void await(List<? extends CompletableFuture<?>> futures)
+        throws GlobalExceptionHandler {
         try {
-            for (Future<Document[]> future : futures) {
-                docs.add(future.get());
+            CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[0])).join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof GlobalExceptionHandler ge) {
+                throw ge;
             }
-        } catch (ExecutionException | InterruptedException e) {
-            throw new GlobalExceptionHandler("Failed to query documents: " + e.getMessage(),
+            throw new GlobalExceptionHandler(
+                "Failed to query documents: " + e.getCause().getMessage(),
                 StatusCode.SERVER_ERROR);
         }
-
-        return docs;
     }
 
-    private static class DocumentQueryTask implements Callable<Document[]> {
+    /**
+     * The deadline of a query, and the nodes whose results are missing or partial.
+     */
+    private static final class QueryProgress {
+
+        private static final String PARTIAL_REASON = "Search timed out, results are partial";
+        private static final String TIMED_OUT_REASON = "Timed out";
 
-        private final QueryEvent queryEvent;
-        private final Lambda lambdaClient;
+        private final long deadlineMs;
+        private final List<NodeFailure> failures = new ArrayList<>();
+        private long reservedMs = 0;
+        private boolean timedOut = false;
 
-        public DocumentQueryTask(QueryEvent queryEvent, Lambda lambdaClient) {
-            this.queryEvent = queryEvent;
-            this.lambdaClient = lambdaClient;
+        QueryProgress(Long timeoutMs, long startMs) {
+            this.deadlineMs = timeoutMs == null ? -1 : startMs + timeoutMs;
         }
 
-        @Override
-        public Document[] call()
-            throws GlobalExceptionHandler {
+        boolean hasDeadline() {
+            return deadlineMs >= 0;
+        }
+
+        /**
+         * Keeps the last milliseconds before the deadline out of the remaining time, for a later
+         * phase of the query.
+         */
+        void reserve(long ms) {
+            reservedMs = ms;
+        }
+
+        /**
+         * Returns the time left before the deadline less the reserved time, at least 1ms, or 0
+         * if there is no deadline.
+         */
+        long getRemainingMs() {
+            if (!hasDeadline()) {
+                return 0;
+            }
+            return Math.max(1, deadlineMs - reservedMs - new Date().getTime());
+        }
 
-            InvokeResponse resp = lambdaClient.invokeSync(
-                buildQueryExecutorName(
-                    queryEvent.getComputeNodeId(), queryEvent.getIndexClass()),
-                QUERY_EXECUTOR_QUALIFIER, queryEvent);
+        synchronized void addPartial(Integer computeNodeId) {
+            failures.add(new NodeFailure(computeNodeId, PARTIAL_REASON));
+            timedOut = true;
+        }
+
+        synchronized void addTimedOut(Integer computeNodeId) {
+            failures.add(new NodeFailure(computeNodeId, TIMED_OUT_REASON));
+            timedOut = true;
+        }
 
-            lambdaClient.validateResponse(resp);
+        synchronized void addFailure(Integer computeNodeId, String reason) {
+            failures.add(new NodeFailure(computeNodeId, reason));
+        }
+
+        /**
+         * Returns whether results are missing or partial because of the deadline, rather than
+         * because of errors.
+         */
+        synchronized boolean isTimedOut() {
+            return timedOut;
+        }
 
-            return JsonParser.parseDocuments(resp.payload().asUtf8String());
+        synchronized NodeFailure[] getFailures() {
+            return failures.toArray(new NodeFailure[0]);
         }
     }
 }
@@ -0,0 +1,145 @@
+package io.wrtn.lambda;
+
+import static io.wrtn.infra.aws.Constants.S3.INDEX_BUCKET;
+import static io.wrtn.util.Constants.Config.TEMPORARY_SHARD_ID;
+import static io.wrtn.util.JsonParser.gson;
+
+import io.wrtn.infra.aws.S3;
+import io.wrtn.model.index.Index;
+import io.wrtn.model.storage.StorageMetadata;
+import io.wrtn.util.GlobalExceptionHandler;
+import io.wrtn.util.PathBuilder;
+import io.wrtn.util.StatusCode;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import software.amazon.awssdk.core.ResponseBytes;
+import software.amazon.awssdk.services.s3.model.GetObjectResponse;
+import software.amazon.awssdk.services.s3.model.NoSuchKeyException;
+
+/**
+ * Caches the parsed storage metadata of the most recently used indexes. A stale entry is
+ * revalidated with its ETag so that an unchanged meta.json is not downloaded again, and
+ * concurrent requests for the same index share a single load.
+ */
+public class StorageMetadataCache {
+
+    private record Entry(StorageMetadata meta, String eTag) {
+
+    }
+
+    private final int maxEntries;
+
+    // Guarded by this
+    private final Map<String, Entry> entries;
+    private final Map<String, CompletableFuture<Entry>> loads = new HashMap<>();
+
+    public StorageMetadataCache(int maxEntries) {
+        this.maxEntries = maxEntries;
+        this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                return size() > StorageMetadataCache.this.maxEntries;
+            }
+        };
+    }
+
+    /**
+     * Returns the storage metadata of the index, loading it again if it is older than the data
+     * of the index.
+     */
+    public StorageMetadata get(Index index, S3 s3Client) throws GlobalExceptionHandler {
+        String key = buildKey(index);
+
+        Entry cached;
+        CompletableFuture<Entry> load;
+        boolean isLoader = false;
+        synchronized (this) {
+            cached = entries.get(key);
+            if (cached != null && cached.meta().getDataUpdatedAt() >= index.getDataUpdatedAt()) {
+                return cached.meta();
+            }
+
+            load = loads.get(key);
+            if (load == null) {
+                load = new CompletableFuture<>();
+                loads.put(key, load);
+                isLoader = true;
+            }
+        }
+
+        if (isLoader) {
+            try {
+                Entry loaded = load(index, cached, s3Client);
+                synchronized (this) {
+                    putIfNewer(key, loaded);
+                    loads.remove(key);
+                }
+                load.complete(loaded);
+            } catch (GlobalExceptionHandler | RuntimeException e) {
+                synchronized (this) {
+                    loads.remove(key);
+                }
+                load.completeExceptionally(e);
+                throw e;
+            }
+        }
+
+        try {
+            return load.join().meta();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof GlobalExceptionHandler ge) {
+                throw ge;
+            } else if (e.getCause() instanceof RuntimeException re) {
+                throw re;
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Caches metadata received from elsewhere, e.g. in a refresh event. It has no ETag, so it is
+     * downloaded again once stale.
+     */
+    public synchronized void put(Index index, StorageMetadata meta) {
+        putIfNewer(buildKey(index), new Entry(meta, null));
+    }
+
+    private void putIfNewer(String key, Entry entry) {
+        Entry cached = entries.get(key);
+        if (cached == null
+            || cached.meta().getDataUpdatedAt() <= entry.meta().getDataUpdatedAt()) {
+            entries.put(key, entry);
+        }
+    }
+
+    private static Entry load(Index index, Entry cached, S3 s3Client)
+        throws GlobalExceptionHandler {
+        ResponseBytes<GetObjectResponse> resp;
+        try {
+            resp = s3Client.getObjectIfNoneMatch(INDEX_BUCKET,
+                PathBuilder.buildMetaKey(index, TEMPORARY_SHARD_ID),
+                cached == null ? null : cached.eTag());
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof NoSuchKeyException) {
+                throw new GlobalExceptionHandler("Index is not active", StatusCode.NOT_FOUND);
+            } else if (e.getCause() instanceof RuntimeException re) {
+                throw re;
+            }
+            throw e;
+        }
+
+        if (resp == null) {
+            // Not modified yet, the index builder has not written the new metadata
+            return cached;
+        }
+        return new Entry(gson.fromJson(resp.asUtf8String(), StorageMetadata.class),
+            resp.response().eTag());
+    }
+
+    private static String buildKey(Index index) {
+        return index.getProjectId() + index.getIndexName();
+    }
+}
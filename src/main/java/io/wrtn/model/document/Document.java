@@ -2,6 +2,7 @@ package io.wrtn.model.document;
 
 import static io.wrtn.util.JsonParser.gson;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.core.JsonGenerator;
 import com.fasterxml.jackson.core.JsonParser;
 import com.fasterxml.jackson.databind.DeserializationContext;
@@ -9,6 +10,7 @@ import com.fasterxml.jackson.databind.JsonDeserializer;
 import com.fasterxml.jackson.databind.JsonSerializer;
 import com.fasterxml.jackson.databind.SerializerProvider;
 
+import com.google.gson.JsonArray;
 import com.google.gson.JsonObject;
 
 import java.io.IOException;
@@ -23,6 +25,8 @@ public class Document {
     @JsonSerialize(using = JsonObjectSerializer.class)
     @JsonDeserialize(using = JsonObjectDeserializer.class)
     JsonObject doc;
+    // Lucene sort values used to merge the results of compute nodes, never returned to users
+    private transient JsonArray sortValues;
 
     public String getIndex() {
         return index;
@@ -48,6 +52,15 @@ public class Document {
         this.doc = doc;
     }
 
+    @JsonIgnore
+    public JsonArray getSortValues() {
+        return sortValues;
+    }
+
+    public void setSortValues(JsonArray sortValues) {
+        this.sortValues = sortValues;
+    }
+
     // Serializer
     public static class JsonObjectSerializer extends JsonSerializer<JsonObject> {
 
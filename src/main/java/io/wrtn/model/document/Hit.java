@@ -0,0 +1,47 @@
+package io.wrtn.model.document;
+
+import com.google.gson.JsonArray;
+
+/**
+ * A matching document without its stored fields: the id and what the router needs to order it
+ * among the hits of the other compute nodes.
+ */
+public class Hit {
+
+    private String id;
+    private Float score;
+    private JsonArray sortValues;
+
+    public String getId() {
+        return id;
+    }
+
+    public void setId(String id) {
+        this.id = id;
+    }
+
+    public Float getScore() {
+        return score;
+    }
+
+    public void setScore(Float score) {
+        this.score = score;
+    }
+
+    public JsonArray getSortValues() {
+        return sortValues;
+    }
+
+    public void setSortValues(JsonArray sortValues) {
+        this.sortValues = sortValues;
+    }
+
+    @Override
+    public String toString() {
+        return "Hit{" +
+            "id='" + id + '\'' +
+            ", score=" + score +
+            ", sortValues=" + sortValues +
+            '}';
+    }
+}
@@ -0,0 +1,38 @@
+package io.wrtn.model.document;
+
+import java.util.Arrays;
+
+public class QueryHits {
+
+    private Hit[] hits;
+    private boolean timedOut;
+
+    public QueryHits(Hit[] hits, boolean timedOut) {
+        this.hits = hits;
+        this.timedOut = timedOut;
+    }
+
+    public Hit[] getHits() {
+        return hits;
+    }
+
+    public void setHits(Hit[] hits) {
+        this.hits = hits;
+    }
+
+    public boolean getTimedOut() {
+        return timedOut;
+    }
+
+    public void setTimedOut(boolean timedOut) {
+        this.timedOut = timedOut;
+    }
+
+    @Override
+    public String toString() {
+        return "QueryHits{" +
+            "hits=" + Arrays.toString(hits) +
+            ", timedOut=" + timedOut +
+            '}';
+    }
+}
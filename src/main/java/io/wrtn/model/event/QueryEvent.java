@@ -25,6 +25,9 @@ public class QueryEvent {
     private boolean includeVectors;
     private String metaObjectKey;
     private String metaObjectVersionId;
+    private boolean consistentRead;
+    private String resultEncoding;
+    private long timeoutMs;
 
     public QueryEvent() {
         this.query = new JsonObject();
@@ -165,6 +168,30 @@ public class QueryEvent {
         this.metaObjectVersionId = metaObjectVersionId;
     }
 
+    public boolean getConsistentRead() {
+        return consistentRead;
+    }
+
+    public void setConsistentRead(boolean consistentRead) {
+        this.consistentRead = consistentRead;
+    }
+
+    public String getResultEncoding() {
+        return resultEncoding;
+    }
+
+    public void setResultEncoding(String resultEncoding) {
+        this.resultEncoding = resultEncoding;
+    }
+
+    public long getTimeoutMs() {
+        return timeoutMs;
+    }
+
+    public void setTimeoutMs(long timeoutMs) {
+        this.timeoutMs = timeoutMs;
+    }
+
     @Override
     public String toString() {
         return "QueryEvent{" +
@@ -184,6 +211,9 @@ public class QueryEvent {
             ", includeVectors=" + includeVectors +
             ", metaObjectKey='" + metaObjectKey + '\'' +
             ", metaObjectVersionId='" + metaObjectVersionId + '\'' +
+            ", consistentRead=" + consistentRead +
+            ", resultEncoding='" + resultEncoding + '\'' +
+            ", timeoutMs=" + timeoutMs +
             '}';
     }
 }
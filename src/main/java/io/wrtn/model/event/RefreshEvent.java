@@ -18,6 +18,7 @@ public class RefreshEvent {
     private Integer size;
     private boolean includeVectors;
     private StorageMetadata storageMetadata;
+    private String resultEncoding;
 
     public RefreshEvent() {
         this.query = new JsonObject();
@@ -106,6 +107,14 @@ public class RefreshEvent {
         this.storageMetadata = storageMetadata;
     }
 
+    public String getResultEncoding() {
+        return resultEncoding;
+    }
+
+    public void setResultEncoding(String resultEncoding) {
+        this.resultEncoding = resultEncoding;
+    }
+
     @Override
     public String toString() {
         return "RefreshEvent{" +
@@ -119,6 +128,7 @@ public class RefreshEvent {
             ", size=" + size +
             ", includeVectors=" + includeVectors +
             ", storageMetadata=" + storageMetadata +
+            ", resultEncoding='" + resultEncoding + '\'' +
             '}';
     }
 }
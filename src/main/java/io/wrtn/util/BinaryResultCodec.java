@@ -0,0 +1,485 @@
+package io.wrtn.util;
+
+import static io.wrtn.engine.lucene.Constants.DATA_TYPE_OBJECT;
+import static io.wrtn.engine.lucene.Constants.DATA_TYPE_VECTOR;
+import static io.wrtn.engine.lucene.Constants.NESTED_FIELD_DELIMITER;
+import static io.wrtn.engine.lucene.Constants.NESTED_FIELD_DELIMITER_ESCAPED;
+import static io.wrtn.util.Constants.Config.QUERY_RESULT_COMPRESSION_THRESHOLD_KB;
+import static io.wrtn.util.JsonParser.gson;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonNull;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonPrimitive;
+import io.wrtn.model.document.Document;
+import io.wrtn.model.document.RefreshedDocs;
+import io.wrtn.model.index.FieldConfig;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Inflater;
+
+/**
+ * Binary encoding of query results on the internal hop from QueryExecutor and IndexRefresher to
+ * the router. Documents are length prefixed, scores are raw floats and vector fields are taken
+ * out of the document JSON and written as raw floats, as are the Lucene sort values the router
+ * merges the results by. Large results are deflated.
+ * <p>
+ * The encoded bytes are written as base64url characters, so that the Lambda runtime passes them
+ * through as a plain JSON string without escaping anything.
+ */
+public final class BinaryResultCodec {
+
+    public static final String ENCODING_BINARY = "binary";
+
+    // Version 1 has no sort values
+    private static final byte VERSION = 2;
+    private static final byte VERSION_WITHOUT_SORT_VALUES = 1;
+    private static final byte FLAG_DEFLATED = 1;
+    private static final byte FLAG_TIMED_OUT = 2;
+    // Base64 characters encoding the version and flags bytes
+    private static final int FLAGS_PREFIX_LENGTH = 4;
+    private static final int NULL_LENGTH = -1;
+
+    private static final byte SORT_VALUE_NULL = 0;
+    private static final byte SORT_VALUE_LONG = 1;
+    private static final byte SORT_VALUE_DOUBLE = 2;
+    private static final byte SORT_VALUE_STRING = 3;
+
+    public static String encodeDocuments(Document[] docs, Map<String, FieldConfig> mappings) {
+        return encodeDocuments(docs, mappings, false);
+    }
+
+    public static String encodeDocuments(Document[] docs, Map<String, FieldConfig> mappings,
+        boolean timedOut) {
+        ResultBody body = out -> encodeDocuments(docs, mappings, timedOut, out);
+        return body.asString();
+    }
+
+    /**
+     * Encodes documents to the writer, flagged as partial if the search collecting them timed
+     * out.
+     */
+    public static void encodeDocuments(Document[] docs, Map<String, FieldConfig> mappings,
+        boolean timedOut, Writer out) throws IOException {
+        Set<String> vectorPaths = collectVectorPaths(mappings);
+        encode(body -> writeDocuments(body, docs, vectorPaths), timedOut ? FLAG_TIMED_OUT : 0,
+            out);
+    }
+
+    public static String encodeRefreshedDocs(RefreshedDocs refreshedDocs,
+        Map<String, FieldConfig> mappings) {
+        ResultBody body = out -> encodeRefreshedDocs(refreshedDocs, mappings, out);
+        return body.asString();
+    }
+
+    public static void encodeRefreshedDocs(RefreshedDocs refreshedDocs,
+        Map<String, FieldConfig> mappings, Writer out) throws IOException {
+        Set<String> vectorPaths = collectVectorPaths(mappings);
+        encode(body -> {
+            writeDocuments(body, refreshedDocs.getDocuments(), vectorPaths);
+            Set<String> deletedIds = refreshedDocs.getDeletedDocIdSet();
+            if (deletedIds == null) {
+                body.writeInt(NULL_LENGTH);
+            } else {
+                body.writeInt(deletedIds.size());
+                for (String id : deletedIds) {
+                    writeString(body, id);
+                }
+            }
+        }, 0, out);
+    }
+
+    /**
+     * Returns true if the payload, with its JSON string quotes removed, is in this encoding
+     * rather than the legacy JSON one.
+     */
+    public static boolean isEncoded(String payload) {
+        return !payload.isEmpty() && payload.charAt(0) != '[' && payload.charAt(0) != '{';
+    }
+
+    public static boolean isTimedOut(String payload) {
+        byte[] header = Base64.getUrlDecoder().decode(payload.substring(0, FLAGS_PREFIX_LENGTH));
+        return (header[1] & FLAG_TIMED_OUT) != 0;
+    }
+
+    public static Document[] decodeDocuments(String payload) {
+        try {
+            Body body = decode(payload);
+            return readDocuments(body.in(), body.version() != VERSION_WITHOUT_SORT_VALUES);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Malformed binary result", e);
+        }
+    }
+
+    public static RefreshedDocs decodeRefreshedDocs(String payload) {
+        try {
+            Body body = decode(payload);
+            DataInputStream in = body.in();
+            Document[] docs = readDocuments(in, body.version() != VERSION_WITHOUT_SORT_VALUES);
+            int numDeletedIds = in.readInt();
+            Set<String> deletedIds = null;
+            if (numDeletedIds != NULL_LENGTH) {
+                deletedIds = new HashSet<>(numDeletedIds);
+                for (int i = 0; i < numDeletedIds; i++) {
+                    deletedIds.add(readString(in));
+                }
+            }
+            return new RefreshedDocs(docs, deletedIds);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Malformed binary result", e);
+        }
+    }
+
+    private interface BodyWriter {
+
+        void write(DataOutputStream out) throws IOException;
+    }
+
+    /**
+     * Writes the payload as base64url characters. Only the body is buffered, since the header
+     * holds its length; it is deflated and encoded while being written out.
+     */
+    private static void encode(BodyWriter writer, int initialFlags, Writer out)
+        throws IOException {
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        writer.write(new DataOutputStream(body));
+
+        byte flags = (byte) initialFlags;
+        boolean deflated = body.size() >= SizeConverter.kbToB(
+            QUERY_RESULT_COMPRESSION_THRESHOLD_KB);
+        if (deflated) {
+            flags |= FLAG_DEFLATED;
+        }
+
+        DataOutputStream payload = new DataOutputStream(
+            Base64.getUrlEncoder().withoutPadding().wrap(new CharOutputStream(out)));
+        payload.writeByte(VERSION);
+        payload.writeByte(flags);
+        payload.writeInt(body.size());
+        if (deflated) {
+            Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+            try {
+                DeflaterOutputStream deflaterOut = new DeflaterOutputStream(payload, deflater,
+                    64 * 1024);
+                body.writeTo(deflaterOut);
+                deflaterOut.finish();
+            } finally {
+                deflater.end();
+            }
+        } else {
+            body.writeTo(payload);
+        }
+        // Writes the last base64 characters, the writer is left open
+        payload.close();
+    }
+
+    /**
+     * Writes bytes to a writer as the chars of the same value, for the ASCII output of a base64
+     * encoder.
+     */
+    private static final class CharOutputStream extends OutputStream {
+
+        private final Writer out;
+
+        CharOutputStream(Writer out) {
+            this.out = out;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b & 0xff);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            char[] chars = new char[len];
+            for (int i = 0; i < len; i++) {
+                chars[i] = (char) (b[off + i] & 0xff);
+            }
+            out.write(chars, 0, len);
+        }
+
+        @Override
+        public void close() {
+            // The writer belongs to the caller
+        }
+    }
+
+    private record Body(byte version, DataInputStream in) {
+
+    }
+
+    private static Body decode(String payload) throws IOException {
+        byte[] bytes = Base64.getUrlDecoder().decode(payload);
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes));
+        byte version = in.readByte();
+        if (version != VERSION && version != VERSION_WITHOUT_SORT_VALUES) {
+            throw new IOException("Unsupported binary result version: " + version);
+        }
+        byte flags = in.readByte();
+        int bodyLength = in.readInt();
+        if ((flags & FLAG_DEFLATED) == 0) {
+            return new Body(version, in);
+        }
+
+        // The header is 6 bytes long
+        return new Body(version, new DataInputStream(new ByteArrayInputStream(
+            inflate(bytes, 6, bytes.length - 6, bodyLength))));
+    }
+
+    private static byte[] inflate(byte[] bytes, int offset, int len, int inflatedLength)
+        throws IOException {
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(bytes, offset, len);
+            byte[] inflated = new byte[inflatedLength];
+            int pos = 0;
+            while (pos < inflatedLength && !inflater.finished()) {
+                int read = inflater.inflate(inflated, pos, inflatedLength - pos);
+                if (read == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    break;
+                }
+                pos += read;
+            }
+            if (pos != inflatedLength) {
+                throw new IOException("Truncated binary result: " + pos + "/" + inflatedLength);
+            }
+            return inflated;
+        } catch (DataFormatException e) {
+            throw new IOException(e);
+        } finally {
+            inflater.end();
+        }
+    }
+
+    private static void writeDocuments(DataOutputStream out, Document[] docs,
+        Set<String> vectorPaths) throws IOException {
+        List<String> paths = new ArrayList<>();
+        List<JsonArray> vectors = new ArrayList<>();
+
+        out.writeInt(docs.length);
+        for (Document doc : docs) {
+            writeString(out, doc.getIndex());
+            if (doc.getScore() == null) {
+                out.writeBoolean(false);
+            } else {
+                out.writeBoolean(true);
+                out.writeFloat(doc.getScore());
+            }
+            writeSortValues(out, doc.getSortValues());
+
+            JsonObject jsonDoc = doc.getDoc();
+            if (jsonDoc == null) {
+                out.writeInt(0);
+                writeString(out, null);
+                continue;
+            }
+
+            // Vectors are taken out of the document and written as raw floats
+            paths.clear();
+            vectors.clear();
+            if (!vectorPaths.isEmpty()) {
+                extractVectors(jsonDoc, "", vectorPaths, paths, vectors);
+            }
+            out.writeInt(paths.size());
+            for (int i = 0; i < paths.size(); i++) {
+                writeString(out, paths.get(i));
+                JsonArray vector = vectors.get(i);
+                out.writeInt(vector.size());
+                for (JsonElement value : vector) {
+                    out.writeFloat(value.getAsFloat());
+                }
+            }
+
+            writeString(out, gson.toJson(jsonDoc));
+            // Leaves the document as it was
+            for (int i = 0; i < paths.size(); i++) {
+                putVector(jsonDoc, paths.get(i), vectors.get(i));
+            }
+        }
+    }
+
+    private static Document[] readDocuments(DataInputStream in, boolean hasSortValues)
+        throws IOException {
+        Document[] docs = new Document[in.readInt()];
+        for (int i = 0; i < docs.length; i++) {
+            Document doc = new Document();
+            doc.setIndex(readString(in));
+            if (in.readBoolean()) {
+                doc.setScore(in.readFloat());
+            }
+            if (hasSortValues) {
+                doc.setSortValues(readSortValues(in));
+            }
+
+            int numVectors = in.readInt();
+            List<String> paths = new ArrayList<>(numVectors);
+            List<JsonArray> vectors = new ArrayList<>(numVectors);
+            for (int j = 0; j < numVectors; j++) {
+                paths.add(readString(in));
+                int dims = in.readInt();
+                JsonArray vector = new JsonArray(dims);
+                for (int k = 0; k < dims; k++) {
+                    vector.add(in.readFloat());
+                }
+                vectors.add(vector);
+            }
+
+            String json = readString(in);
+            if (json != null) {
+                JsonObject jsonDoc = gson.fromJson(json, JsonObject.class);
+                for (int j = 0; j < numVectors; j++) {
+                    putVector(jsonDoc, paths.get(j), vectors.get(j));
+                }
+                doc.setDoc(jsonDoc);
+            }
+            docs[i] = doc;
+        }
+        return docs;
+    }
+
+    private static void writeSortValues(DataOutputStream out, JsonArray sortValues)
+        throws IOException {
+        if (sortValues == null) {
+            out.writeInt(NULL_LENGTH);
+            return;
+        }
+        out.writeInt(sortValues.size());
+        for (JsonElement value : sortValues) {
+            if (value.isJsonNull()) {
+                out.writeByte(SORT_VALUE_NULL);
+            } else if (value.getAsJsonPrimitive().isString()) {
+                out.writeByte(SORT_VALUE_STRING);
+                writeString(out, value.getAsString());
+            } else if (value.getAsNumber() instanceof Long) {
+                out.writeByte(SORT_VALUE_LONG);
+                out.writeLong(value.getAsLong());
+            } else {
+                out.writeByte(SORT_VALUE_DOUBLE);
+                out.writeDouble(value.getAsDouble());
+            }
+        }
+    }
+
+    private static JsonArray readSortValues(DataInputStream in) throws IOException {
+        int numValues = in.readInt();
+        if (numValues == NULL_LENGTH) {
+            return null;
+        }
+        JsonArray sortValues = new JsonArray(numValues);
+        for (int i = 0; i < numValues; i++) {
+            byte type = in.readByte();
+            switch (type) {
+                case SORT_VALUE_NULL -> sortValues.add(JsonNull.INSTANCE);
+                case SORT_VALUE_LONG -> sortValues.add(in.readLong());
+                case SORT_VALUE_DOUBLE -> sortValues.add(in.readDouble());
+                case SORT_VALUE_STRING -> sortValues.add(readString(in));
+                default -> throw new IOException("Unknown sort value type: " + type);
+            }
+        }
+        return sortValues;
+    }
+
+    private static void extractVectors(JsonObject object, String prefix, Set<String> vectorPaths,
+        List<String> paths, List<JsonArray> vectors) {
+        List<String> extracted = new ArrayList<>();
+        for (Map.Entry<String, JsonElement> entry : object.entrySet()) {
+            String path = prefix + entry.getKey();
+            JsonElement value = entry.getValue();
+            if (value.isJsonArray() && vectorPaths.contains(path)
+                && isNumberArray(value.getAsJsonArray())) {
+                paths.add(path);
+                vectors.add(value.getAsJsonArray());
+                extracted.add(entry.getKey());
+            } else if (value.isJsonObject()) {
+                extractVectors(value.getAsJsonObject(), path + NESTED_FIELD_DELIMITER,
+                    vectorPaths, paths, vectors);
+            }
+        }
+        for (String name : extracted) {
+            object.remove(name);
+        }
+    }
+
+    private static boolean isNumberArray(JsonArray array) {
+        for (JsonElement element : array) {
+            if (!(element instanceof JsonPrimitive primitive) || !primitive.isNumber()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static void putVector(JsonObject jsonDoc, String path, JsonArray vector) {
+        String[] names = path.split(NESTED_FIELD_DELIMITER_ESCAPED);
+        JsonObject current = jsonDoc;
+        for (int i = 0; i < names.length - 1; i++) {
+            JsonObject child = current.getAsJsonObject(names[i]);
+            if (child == null) {
+                child = new JsonObject();
+                current.add(names[i], child);
+            }
+            current = child;
+        }
+        current.add(names[names.length - 1], vector);
+    }
+
+    private static Set<String> collectVectorPaths(Map<String, FieldConfig> mappings) {
+        Set<String> paths = new HashSet<>();
+        if (mappings != null) {
+            collectVectorPaths(mappings, "", paths);
+        }
+        return paths;
+    }
+
+    private static void collectVectorPaths(Map<String, FieldConfig> mappings, String prefix,
+        Set<String> paths) {
+        for (Map.Entry<String, FieldConfig> entry : mappings.entrySet()) {
+            FieldConfig config = entry.getValue();
+            if (DATA_TYPE_VECTOR.equals(config.getType())) {
+                paths.add(prefix + entry.getKey());
+            } else if (DATA_TYPE_OBJECT.equals(config.getType())
+                && config.getObjectMapping() != null) {
+                collectVectorPaths(config.getObjectMapping(),
+                    prefix + entry.getKey() + NESTED_FIELD_DELIMITER, paths);
+            }
+        }
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        if (value == null) {
+            out.writeInt(NULL_LENGTH);
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length == NULL_LENGTH) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
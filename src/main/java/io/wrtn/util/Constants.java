@@ -34,6 +34,103 @@ public final class Constants {
                 System.getenv("INDEX_BUILD_INTERVAL"));
         public static final int TEMPORARY_SHARD_ID = 0;
         public static final String FS_TEMP_PATH = System.getenv("FS_TEMP_PATH");
+        public static final int FS_CACHE_BLOCK_SIZE_KB =
+            System.getenv("FS_CACHE_BLOCK_SIZE_KB") == null ? 1024 : Integer.parseInt(
+                System.getenv("FS_CACHE_BLOCK_SIZE_KB"));
+        public static final int FS_CACHE_PREFETCH_BLOCKS =
+            System.getenv("FS_CACHE_PREFETCH_BLOCKS") == null ? 4 : Integer.parseInt(
+                System.getenv("FS_CACHE_PREFETCH_BLOCKS"));
+        public static final int FS_CACHE_BLOCK_READ_THRESHOLD_MB =
+            System.getenv("FS_CACHE_BLOCK_READ_THRESHOLD_MB") == null ? 8 : Integer.parseInt(
+                System.getenv("FS_CACHE_BLOCK_READ_THRESHOLD_MB"));
+        public static final int FS_CACHE_SIZE_LIMIT_MB =
+            System.getenv("FS_CACHE_SIZE_LIMIT_MB") == null ? -1 : Integer.parseInt(
+                System.getenv("FS_CACHE_SIZE_LIMIT_MB"));
+        public static final int STORAGE_INLINE_FILE_THRESHOLD_KB =
+            System.getenv("STORAGE_INLINE_FILE_THRESHOLD_KB") == null ? 4 : Integer.parseInt(
+                System.getenv("STORAGE_INLINE_FILE_THRESHOLD_KB"));
+        public static final boolean INDEX_ID_BLOOM_FILTER =
+            System.getenv("INDEX_ID_BLOOM_FILTER") == null || Boolean.parseBoolean(
+                System.getenv("INDEX_ID_BLOOM_FILTER"));
+        public static final boolean FS_CACHE_PREFETCH_ON_OPEN = Boolean.parseBoolean(
+            System.getenv("FS_CACHE_PREFETCH_ON_OPEN"));
+        public static final int S3_MULTIPART_OUTPUT_THRESHOLD_MB =
+            System.getenv("S3_MULTIPART_OUTPUT_THRESHOLD_MB") == null ? 256 : Integer.parseInt(
+                System.getenv("S3_MULTIPART_OUTPUT_THRESHOLD_MB"));
+        public static final int S3_MULTIPART_PART_SIZE_MB =
+            System.getenv("S3_MULTIPART_PART_SIZE_MB") == null ? 16 : Integer.parseInt(
+                System.getenv("S3_MULTIPART_PART_SIZE_MB"));
+        public static final int S3_MULTIPART_MAX_INFLIGHT_PARTS =
+            System.getenv("S3_MULTIPART_MAX_INFLIGHT_PARTS") == null ? 4 : Integer.parseInt(
+                System.getenv("S3_MULTIPART_MAX_INFLIGHT_PARTS"));
+        public static final String FS_CACHE_EVICTION_POLICY =
+            System.getenv("FS_CACHE_EVICTION_POLICY") == null ? "LRU" : System.getenv(
+                "FS_CACHE_EVICTION_POLICY");
+
+        public static final int SEARCH_THREADS =
+            System.getenv("SEARCH_THREADS") == null ? -1 : Integer.parseInt(
+                System.getenv("SEARCH_THREADS"));
+        public static final int SEARCH_SLICE_MAX_DOCS =
+            System.getenv("SEARCH_SLICE_MAX_DOCS") == null ? 250_000 : Integer.parseInt(
+                System.getenv("SEARCH_SLICE_MAX_DOCS"));
+        public static final int SEARCH_SLICE_MAX_SEGMENTS =
+            System.getenv("SEARCH_SLICE_MAX_SEGMENTS") == null ? 5 : Integer.parseInt(
+                System.getenv("SEARCH_SLICE_MAX_SEGMENTS"));
+
+        public static final int QUERY_CACHE_SIZE_MB =
+            System.getenv("QUERY_CACHE_SIZE_MB") == null ? -1 : Integer.parseInt(
+                System.getenv("QUERY_CACHE_SIZE_MB"));
+        public static final int QUERY_CACHE_MIN_SEGMENT_DOCS =
+            System.getenv("QUERY_CACHE_MIN_SEGMENT_DOCS") == null ? 10000 : Integer.parseInt(
+                System.getenv("QUERY_CACHE_MIN_SEGMENT_DOCS"));
+        public static final int QUERY_CACHE_TERM_MIN_FREQUENCY =
+            System.getenv("QUERY_CACHE_TERM_MIN_FREQUENCY") == null ? 2 : Integer.parseInt(
+                System.getenv("QUERY_CACHE_TERM_MIN_FREQUENCY"));
+
+        public static final long QUERY_EXECUTOR_MAX_STALENESS_MS =
+            System.getenv("QUERY_EXECUTOR_MAX_STALENESS_MS") == null ? 5000 : Long.parseLong(
+                System.getenv("QUERY_EXECUTOR_MAX_STALENESS_MS"));
+        public static final int QUERY_RESULT_COMPRESSION_THRESHOLD_KB =
+            System.getenv("QUERY_RESULT_COMPRESSION_THRESHOLD_KB") == null ? 16 : Integer.parseInt(
+                System.getenv("QUERY_RESULT_COMPRESSION_THRESHOLD_KB"));
+        public static final int QUERY_EXECUTOR_PARSED_QUERY_CACHE_MAX_ENTRIES =
+            System.getenv("QUERY_EXECUTOR_PARSED_QUERY_CACHE_MAX_ENTRIES") == null ? 256
+                : Integer.parseInt(System.getenv("QUERY_EXECUTOR_PARSED_QUERY_CACHE_MAX_ENTRIES"));
+        public static final int QUERY_EXECUTOR_LEAF_RESULT_CACHE_MAX_ENTRIES =
+            System.getenv("QUERY_EXECUTOR_LEAF_RESULT_CACHE_MAX_ENTRIES") == null ? 256
+                : Integer.parseInt(System.getenv("QUERY_EXECUTOR_LEAF_RESULT_CACHE_MAX_ENTRIES"));
+        public static final int QUERY_EXECUTOR_LEAF_RESULT_CACHE_MAX_MB =
+            System.getenv("QUERY_EXECUTOR_LEAF_RESULT_CACHE_MAX_MB") == null ? 16
+                : Integer.parseInt(System.getenv("QUERY_EXECUTOR_LEAF_RESULT_CACHE_MAX_MB"));
+        public static final boolean QUERY_ROUTER_TWO_PHASE =
+            System.getenv("QUERY_ROUTER_TWO_PHASE") == null || Boolean.parseBoolean(
+                System.getenv("QUERY_ROUTER_TWO_PHASE"));
+        public static final int QUERY_ROUTER_FETCH_MIN_BUDGET_MS =
+            System.getenv("QUERY_ROUTER_FETCH_MIN_BUDGET_MS") == null ? 200 : Integer.parseInt(
+                System.getenv("QUERY_ROUTER_FETCH_MIN_BUDGET_MS"));
+        public static final double QUERY_ROUTER_HEDGE_PERCENTILE =
+            System.getenv("QUERY_ROUTER_HEDGE_PERCENTILE") == null ? -1 : Double.parseDouble(
+                System.getenv("QUERY_ROUTER_HEDGE_PERCENTILE"));
+        public static final int QUERY_ROUTER_HEDGE_MIN_SAMPLES =
+            System.getenv("QUERY_ROUTER_HEDGE_MIN_SAMPLES") == null ? 20 : Integer.parseInt(
+                System.getenv("QUERY_ROUTER_HEDGE_MIN_SAMPLES"));
+        public static final int QUERY_ROUTER_RESULT_CACHE_SIZE_MB =
+            System.getenv("QUERY_ROUTER_RESULT_CACHE_SIZE_MB") == null ? -1 : Integer.parseInt(
+                System.getenv("QUERY_ROUTER_RESULT_CACHE_SIZE_MB"));
+        public static final int STORAGE_METADATA_CACHE_MAX_ENTRIES =
+            System.getenv("STORAGE_METADATA_CACHE_MAX_ENTRIES") == null ? 256 : Integer.parseInt(
+                System.getenv("STORAGE_METADATA_CACHE_MAX_ENTRIES"));
+        public static final int HELPER_REGISTRY_MEMORY_LIMIT_MB =
+            System.getenv("HELPER_REGISTRY_MEMORY_LIMIT_MB") == null ? -1 : Integer.parseInt(
+                System.getenv("HELPER_REGISTRY_MEMORY_LIMIT_MB"));
+        public static final int QUERY_EXECUTOR_WARMUP_QUERIES =
+            System.getenv("QUERY_EXECUTOR_WARMUP_QUERIES") == null ? 0 : Integer.parseInt(
+                System.getenv("QUERY_EXECUTOR_WARMUP_QUERIES"));
+        public static final int QUERY_EXECUTOR_WARMUP_MAX_INDEXES =
+            System.getenv("QUERY_EXECUTOR_WARMUP_MAX_INDEXES") == null ? 32 : Integer.parseInt(
+                System.getenv("QUERY_EXECUTOR_WARMUP_MAX_INDEXES"));
+        public static final boolean INDEX_BUILDER_WARMUP_EXECUTORS = Boolean.parseBoolean(
+            System.getenv("INDEX_BUILDER_WARMUP_EXECUTORS"));
 
         public static final int MAX_NUM_COMPUTE_NODES_STD =
             System.getenv("MAX_NUM_COMPUTE_NODES_STD") == null ? -1 : Integer.parseInt(
@@ -77,6 +174,8 @@ public final class Constants {
         public static final String DOCUMENT_DELETE = "DOCUMENT_DELETE";
         public static final String DOCUMENT_QUERY = "QUERY";
         public static final String DOCUMENT_FETCH = "FETCH";
+        public static final String DOCUMENT_QUERY_HITS = "QUERY_HITS";
+        public static final String QUERY_EXECUTOR_WARMUP = "WARMUP";
     }
 
     public static class Limits {
@@ -15,15 +15,23 @@ import com.google.gson.JsonArray;
 import com.google.gson.JsonElement;
 import com.google.gson.JsonObject;
 import io.wrtn.dto.QueryRequest;
+import io.wrtn.engine.lucene.query.SortBuilder;
 import io.wrtn.model.document.Document;
+import io.wrtn.model.document.Hit;
 import io.wrtn.model.document.RefreshedDocs;
 import io.wrtn.model.index.FieldConfig;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Comparator;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.function.Function;
+import org.apache.lucene.search.SortField;
+import org.apache.lucene.util.BytesRef;
 
 public final class DocumentSorter {
 
@@ -31,42 +39,134 @@ public final class DocumentSorter {
         Map<String, FieldConfig> mappings,
         QueryRequest request) throws GlobalExceptionHandler {
 
-        Document[] mergedDocs;
+        SortedRunMerger<Document> merger = new SortedRunMerger<>(
+            createDocumentComparator(request.getSort(), mappings), request.getSize(),
+            DocumentSorter::getId);
+        for (Document[] run : docs) {
+            merger.addRun(run);
+        }
         if (refreshedDocs != null) {
-            mergedDocs = mergeWithRefreshedDocs(docs, refreshedDocs);
-        } else {
-            mergedDocs = docs.stream()
-                .flatMap(Arrays::stream)
-                .toArray(Document[]::new);
+            merger.addReplacingRun(refreshedDocs.getDocuments(), getReplacedIds(refreshedDocs));
         }
+        return merger.getResult().toArray(Document[]::new);
+    }
 
-        Document[] sortedDocs;
-        if (request.getSort() == null) {
-            Comparator<Document> scoreComparator = Comparator.comparing(Document::getScore,
-                Comparator.nullsFirst(Comparator.naturalOrder())).reversed();
-            Comparator<Document> defaultIdcomparator = createComparatorByType(DOC_FIELD_ID,
-                DATA_TYPE_KEYWORD, false);
-            Comparator<Document> combinedComparator = scoreComparator.thenComparing(
-                defaultIdcomparator);
+    /**
+     * Returns a comparator ordering documents the way the compute nodes did: by score, or by the
+     * sort values of the sort fields, then by id. Documents without sort values, from executors
+     * in the JSON encoding, are compared by their fields instead.
+     */
+    public static Comparator<Document> createDocumentComparator(JsonArray sortArray,
+        Map<String, FieldConfig> mappings) throws GlobalExceptionHandler {
+
+        if (sortArray == null || sortArray.isEmpty()) {
+            return createScoreComparator(Document::getScore, DocumentSorter::getId);
+        }
+
+        Comparator<JsonArray> sortValuesComparator = createSortValuesComparator(sortArray,
+            mappings);
+        Comparator<Document> fieldComparator = createFieldComparator(sortArray, mappings);
+        return (doc1, doc2) -> doc1.getSortValues() != null && doc2.getSortValues() != null
+            ? sortValuesComparator.compare(doc1.getSortValues(), doc2.getSortValues())
+            : fieldComparator.compare(doc1, doc2);
+    }
 
-            sortedDocs = Arrays.stream(mergedDocs)
-                .sorted(combinedComparator)
-                .limit(request.getSize())
-                .toArray(Document[]::new);
+    /**
+     * Returns the ids of the documents the refreshed ones replace: the deleted and the updated.
+     */
+    public static Set<String> getReplacedIds(RefreshedDocs refreshedDocs) {
+        Set<String> replacedIds = new HashSet<>();
+        if (refreshedDocs.getDeletedDocIdSet() != null) {
+            replacedIds.addAll(refreshedDocs.getDeletedDocIdSet());
+        }
+        for (Document document : refreshedDocs.getDocuments()) {
+            replacedIds.add(getId(document));
+        }
+        return replacedIds;
+    }
+
+    /**
+     * Returns a comparator ordering hits the way the compute nodes did: by score, or by the sort
+     * values of the sort fields, then by id.
+     */
+    public static Comparator<Hit> createHitComparator(JsonArray sortArray,
+        Map<String, FieldConfig> mappings) throws GlobalExceptionHandler {
+
+        if (sortArray == null || sortArray.isEmpty()) {
+            return createScoreComparator(Hit::getScore, Hit::getId);
+        }
+        return Comparator.comparing(Hit::getSortValues,
+            createSortValuesComparator(sortArray, mappings));
+    }
 
-        } else {
-            sortedDocs = _sortDocuments(mergedDocs, mappings, request.getSort(), request.getSize());
+    /**
+     * Orders results ranked by score with equal scores by id, as the comparators do, since Lucene
+     * breaks score ties by document number instead. Costs a single pass when no two scores are
+     * equal.
+     */
+    public static <T> void sortScoreTies(List<T> results, Function<T, Float> score,
+        Function<T, String> id) {
+        Comparator<T> comparator = createScoreComparator(score, id);
+        int start = 0;
+        for (int i = 1; i <= results.size(); i++) {
+            if (i == results.size()
+                || !Objects.equals(score.apply(results.get(i)), score.apply(results.get(start)))) {
+                if (i - start > 1) {
+                    results.subList(start, i).sort(comparator);
+                }
+                start = i;
+            }
         }
-        return sortedDocs;
     }
 
-    public static Document[] _sortDocuments(Document[] documents, Map<String, FieldConfig> mappings,
-        JsonArray sortArray, int size) throws GlobalExceptionHandler {
+    private static <T> Comparator<T> createScoreComparator(Function<T, Float> score,
+        Function<T, String> id) {
+        Comparator<T> scoreComparator = Comparator.comparing(score,
+            Comparator.nullsFirst(Comparator.naturalOrder())).reversed();
+        return scoreComparator.thenComparing(
+            (val1, val2) -> compareValues(id.apply(val1), id.apply(val2), false));
+    }
+
+    /**
+     * Compares Lucene sort values of the sort fields, with missing keywords first as Lucene does.
+     * The last sort field is the id, so no two documents are equal.
+     */
+    private static Comparator<JsonArray> createSortValuesComparator(JsonArray sortArray,
+        Map<String, FieldConfig> mappings) throws GlobalExceptionHandler {
+
+        SortField[] sortFields = SortBuilder.build(sortArray, mappings).getSort();
+        return (values1, values2) -> {
+            for (int i = 0; i < sortFields.length; i++) {
+                int result = compareSortValues(sortFields[i].getType(), values1.get(i),
+                    values2.get(i));
+                if (result != 0) {
+                    return sortFields[i].getReverse() ? -result : result;
+                }
+            }
+            return 0;
+        };
+    }
 
-        if (documents == null || documents.length <= 1 || sortArray == null
-            || sortArray.isEmpty()) {
-            return documents;
+    private static int compareSortValues(SortField.Type type, JsonElement val1,
+        JsonElement val2) {
+        if (val1.isJsonNull() || val2.isJsonNull()) {
+            return Boolean.compare(!val1.isJsonNull(), !val2.isJsonNull());
         }
+        return switch (type) {
+            case LONG -> Long.compare(val1.getAsLong(), val2.getAsLong());
+            case DOUBLE -> Double.compare(val1.getAsDouble(), val2.getAsDouble());
+            // Keywords are ordered by their UTF-8 bytes
+            default -> new BytesRef(val1.getAsString()).compareTo(new BytesRef(val2.getAsString()));
+        };
+    }
+
+    public static String getId(Document doc) {
+        JsonElement id = doc.getDoc().get(DOC_FIELD_ID);
+        return id == null || id.isJsonNull() ? null : id.getAsString();
+    }
+
+    private static Comparator<Document> createFieldComparator(JsonArray sortArray,
+        Map<String, FieldConfig> mappings) throws GlobalExceptionHandler {
 
         List<Comparator<Document>> comparators = new ArrayList<>();
 
@@ -92,23 +192,11 @@ public final class DocumentSorter {
             comparators.add(defaultIdcomparator);
         }
 
-        Comparator<Document> combinedComparator = null;
-        for (Comparator<Document> comparator : comparators) {
-            if (combinedComparator == null) {
-                combinedComparator = comparator;
-            } else {
-                combinedComparator = combinedComparator.thenComparing(comparator);
-            }
-        }
-
-        if (combinedComparator != null) {
-            return Arrays.stream(documents)
-                .sorted(combinedComparator)
-                .limit(size)
-                .toArray(Document[]::new);
+        Comparator<Document> combinedComparator = comparators.get(0);
+        for (int i = 1; i < comparators.size(); i++) {
+            combinedComparator = combinedComparator.thenComparing(comparators.get(i));
         }
-
-        return documents;
+        return combinedComparator;
     }
 
     private static Comparator<Document> createComparatorByType(String fieldName, String fieldType,
@@ -2,21 +2,40 @@ package io.wrtn.util;
 
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
 import com.google.gson.JsonSyntaxException;
 import com.google.gson.reflect.TypeToken;
 import io.wrtn.model.document.Document;
+import io.wrtn.model.document.QueryHits;
 import io.wrtn.model.document.RefreshedDocs;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.TreeMap;
 import org.apache.commons.text.StringEscapeUtils;
 
 public final class JsonParser {
 
     public static final Gson gson = new GsonBuilder().serializeNulls().create();
 
+    private static final Gson hitsGson = new Gson();
+
     public static final Gson exceptionGson = new GsonBuilder()
         .registerTypeAdapter(GlobalExceptionHandler.class, new GlobalExceptionHandler())
         .create();
 
     public static Document[] parseDocuments(String json) {
+        String payload = json.substring(1, json.length() - 1);
+        if (BinaryResultCodec.isEncoded(payload)) {
+            return BinaryResultCodec.decodeDocuments(payload);
+        }
+
         String jsonString = StringEscapeUtils.unescapeJson(json);
         return gson.fromJson(jsonString.substring(1, jsonString.length() - 1),
             Document[].class);
@@ -24,11 +43,36 @@ public final class JsonParser {
     }
 
     public static RefreshedDocs parseRefreshedDocs(String json) {
+        String payload = json.substring(1, json.length() - 1);
+        if (BinaryResultCodec.isEncoded(payload)) {
+            return BinaryResultCodec.decodeRefreshedDocs(payload);
+        }
+
         String jsonString = StringEscapeUtils.unescapeJson(json);
         return gson.fromJson(jsonString.substring(1, jsonString.length() - 1),
             RefreshedDocs.class);
     }
 
+    /**
+     * Writes hits for {@link #parseHits}. Null values are left out, since Gson does not read a
+     * null back into the JsonArray of the sort values.
+     */
+    public static void writeHits(QueryHits hits, Writer out) {
+        hitsGson.toJson(hits, out);
+    }
+
+    public static QueryHits parseHits(String json) {
+        return gson.fromJson(gson.fromJson(json, String.class), QueryHits.class);
+    }
+
+    /**
+     * Returns true if the documents in the payload are partial since the search timed out.
+     */
+    public static boolean isTimedOut(String json) {
+        String payload = json.substring(1, json.length() - 1);
+        return BinaryResultCodec.isEncoded(payload) && BinaryResultCodec.isTimedOut(payload);
+    }
+
     public static <T> T parseRequestBody(String body, Class<T> classOfT)
         throws GlobalExceptionHandler {
         try {
@@ -37,4 +81,100 @@ public final class JsonParser {
             throw new GlobalExceptionHandler("Invalid JSON body", StatusCode.BAD_REQUEST);
         }
     }
+
+    /**
+     * Returns the JSON with object keys sorted, so that equal values written in a different order
+     * serialize the same.
+     */
+    public static String normalize(JsonElement element) {
+        return gson.toJson(sortKeys(element));
+    }
+
+    private static JsonElement sortKeys(JsonElement element) {
+        if (element == null || element.isJsonNull() || element.isJsonPrimitive()) {
+            return element;
+        } else if (element.isJsonArray()) {
+            JsonArray sorted = new JsonArray();
+            for (JsonElement e : element.getAsJsonArray()) {
+                sorted.add(sortKeys(e));
+            }
+            return sorted;
+        }
+
+        Map<String, JsonElement> fields = new TreeMap<>();
+        for (Map.Entry<String, JsonElement> e : element.getAsJsonObject().entrySet()) {
+            fields.put(e.getKey(), sortKeys(e.getValue()));
+        }
+        JsonObject sorted = new JsonObject();
+        fields.forEach(sorted::add);
+        return sorted;
+    }
+
+    /**
+     * Writes a result as a JSON string, the way the Lambda runtime serializes the String returned
+     * by a RequestHandler. The result is escaped while it is encoded, so that the String is never
+     * built.
+     */
+    public static void writeJsonString(ResultBody body, OutputStream out) throws IOException {
+        Writer writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8));
+        writer.write('"');
+        body.writeTo(new JsonStringWriter(writer));
+        writer.write('"');
+        writer.flush();
+    }
+
+    /**
+     * Escapes the characters written to it as the contents of a JSON string.
+     */
+    private static final class JsonStringWriter extends Writer {
+
+        private final Writer out;
+
+        JsonStringWriter(Writer out) {
+            this.out = out;
+        }
+
+        @Override
+        public void write(int c) throws IOException {
+            switch (c) {
+                case '"' -> out.write("\\\"");
+                case '\\' -> out.write("\\\\");
+                case '\n' -> out.write("\\n");
+                case '\r' -> out.write("\\r");
+                case '\t' -> out.write("\\t");
+                default -> {
+                    if (c < 0x20 || c == '\u2028' || c == '\u2029') {
+                        out.write(String.format("\\u%04x", c));
+                    } else {
+                        out.write(c);
+                    }
+                }
+            }
+        }
+
+        @Override
+        public void write(char[] cbuf, int off, int len) throws IOException {
+            for (int i = off; i < off + len; i++) {
+                write(cbuf[i]);
+            }
+        }
+
+        @Override
+        public void write(String str, int off, int len) throws IOException {
+            for (int i = off; i < off + len; i++) {
+                write(str.charAt(i));
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            out.flush();
+        }
+
+        @Override
+        public void close() throws IOException {
+            // The closing quote is written after
+            flush();
+        }
+    }
 }
@@ -0,0 +1,30 @@
+package io.wrtn.util;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+
+/**
+ * The result of a handler, encoded when it is written rather than built as a String up front so
+ * that stream handlers can write it straight to the invocation response.
+ */
+@FunctionalInterface
+public interface ResultBody {
+
+    void writeTo(Writer out) throws IOException;
+
+    /**
+     * Returns the result as a String, as returned by a RequestHandler.
+     */
+    default String asString() {
+        StringWriter out = new StringWriter();
+        try {
+            writeTo(out);
+        } catch (IOException e) {
+            // Never thrown by a StringWriter
+            throw new UncheckedIOException(e);
+        }
+        return out.toString();
+    }
+}
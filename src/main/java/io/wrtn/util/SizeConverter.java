@@ -2,6 +2,10 @@ package io.wrtn.util;
 
 public final class SizeConverter {
 
+    public static long kbToB(int kb) {
+        return (long) kb * 1024;
+    }
+
     public static long mbToB(int mb) {
         return (long) mb * 1024 * 1024;
     }
@@ -0,0 +1,103 @@
+package io.wrtn.util;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.function.Function;
+
+/**
+ * Merges runs of results, each in the order of the comparator, into the top size ones. Runs are
+ * kept as they arrive and merged with a k-way merge, which stops after size results.
+ * <p>
+ * With consistent reads a run of refreshed results replaces the results of the same ids in the
+ * other runs, and removes the deleted ones.
+ */
+public final class SortedRunMerger<T> {
+
+    private final Comparator<T> comparator;
+    private final int size;
+    private final Function<T, String> idFunction;
+
+    // Guarded by this
+    private final List<T[]> runs = new ArrayList<>();
+    private T[] replacingRun;
+    private Set<String> replacedIds = Set.of();
+
+    public SortedRunMerger(Comparator<T> comparator, int size, Function<T, String> idFunction) {
+        this.comparator = comparator;
+        this.size = size;
+        this.idFunction = idFunction;
+    }
+
+    public SortedRunMerger(Comparator<T> comparator, int size) {
+        this(comparator, size, null);
+    }
+
+    public synchronized void addRun(T[] run) {
+        runs.add(run);
+    }
+
+    /**
+     * Adds the run of refreshed results, which replace the results with the given ids.
+     */
+    public synchronized void addReplacingRun(T[] run, Set<String> ids) {
+        replacingRun = run;
+        replacedIds = ids;
+    }
+
+    public synchronized List<T> getResult() {
+        PriorityQueue<RunCursor> queue = new PriorityQueue<>(runs.size() + 1,
+            (cursor1, cursor2) -> comparator.compare(cursor1.current(), cursor2.current()));
+        for (T[] run : runs) {
+            RunCursor cursor = new RunCursor(run, !replacedIds.isEmpty());
+            if (cursor.advance()) {
+                queue.add(cursor);
+            }
+        }
+        if (replacingRun != null) {
+            RunCursor cursor = new RunCursor(replacingRun, false);
+            if (cursor.advance()) {
+                queue.add(cursor);
+            }
+        }
+
+        List<T> result = new ArrayList<>();
+        while (result.size() < size && !queue.isEmpty()) {
+            RunCursor cursor = queue.poll();
+            result.add(cursor.current());
+            if (cursor.advance()) {
+                queue.add(cursor);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * The next result of a run, skipping the replaced ones if the run is filtered.
+     */
+    private final class RunCursor {
+
+        private final T[] run;
+        private final boolean filtered;
+        private int index = -1;
+
+        RunCursor(T[] run, boolean filtered) {
+            this.run = run;
+            this.filtered = filtered;
+        }
+
+        T current() {
+            return run[index];
+        }
+
+        boolean advance() {
+            do {
+                index++;
+            } while (filtered && index < run.length
+                && replacedIds.contains(idFunction.apply(run[index])));
+            return index < run.length;
+        }
+    }
+}
@@ -1,17 +1,46 @@
 package io.wrtn.util;
 
+import static io.wrtn.util.Constants.Config.SEARCH_THREADS;
+
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 public final class Threads {
 
+    public record CPUExecutorStats(int threads, int active, int queued, long completed) {
+
+    }
+
     private static final ExecutorService ioExecutor = Executors.newVirtualThreadPerTaskExecutor();
 
+    // Bounded to the vCPUs, so that search slices of concurrent queries queue up rather than
+    // compete with each other and with I/O tasks
+    private static final ThreadPoolExecutor cpuExecutor = new ThreadPoolExecutor(
+        getNumCPUThreads(), getNumCPUThreads(), 0L, TimeUnit.MILLISECONDS,
+        new LinkedBlockingQueue<>(), Thread.ofPlatform().name("search-", 0).daemon().factory());
+
     public static void shutdown() {
         ioExecutor.shutdownNow();
+        cpuExecutor.shutdownNow();
     }
 
     public static ExecutorService getIOExecutor() {
         return ioExecutor;
     }
+
+    public static ExecutorService getCPUExecutor() {
+        return cpuExecutor;
+    }
+
+    public static int getNumCPUThreads() {
+        return SEARCH_THREADS > 0 ? SEARCH_THREADS : Runtime.getRuntime().availableProcessors();
+    }
+
+    public static CPUExecutorStats getCPUExecutorStats() {
+        return new CPUExecutorStats(cpuExecutor.getPoolSize(), cpuExecutor.getActiveCount(),
+            cpuExecutor.getQueue().size(), cpuExecutor.getCompletedTaskCount());
+    }
 }
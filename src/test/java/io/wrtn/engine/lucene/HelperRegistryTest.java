@@ -0,0 +1,107 @@
+package io.wrtn.engine.lucene;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import io.wrtn.util.GlobalLogger;
+import java.io.Closeable;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.apache.lucene.util.Accountable;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+class HelperRegistryTest {
+
+    private static final class FakeHelper implements Accountable, Closeable {
+
+        private long footprint;
+        private boolean closed = false;
+
+        FakeHelper(long footprint) {
+            this.footprint = footprint;
+        }
+
+        @Override
+        public long ramBytesUsed() {
+            return footprint;
+        }
+
+        @Override
+        public void close() {
+            closed = true;
+        }
+    }
+
+    @BeforeAll
+    static void initLogger() {
+        GlobalLogger.initialize(false);
+    }
+
+    private static FakeHelper use(HelperRegistry<FakeHelper> registry, String key, long footprint)
+        throws Exception {
+        FakeHelper helper = registry.acquire(key, () -> new FakeHelper(footprint));
+        registry.release(key, helper);
+        return helper;
+    }
+
+    @Test
+    void closesLeastRecentlyUsedHelpersOverBudget() throws Exception {
+        HelperRegistry<FakeHelper> registry = new HelperRegistry<>(100);
+        FakeHelper a = use(registry, "a", 60);
+        FakeHelper b = use(registry, "b", 30);
+        use(registry, "a", 60);
+        FakeHelper c = use(registry, "c", 30);
+
+        assertTrue(b.closed);
+        assertFalse(a.closed);
+        assertFalse(c.closed);
+        assertEquals(2, registry.size());
+        assertEquals(90, registry.getUsedBytes());
+    }
+
+    @Test
+    void keepsHelpersInUseOverBudget() throws Exception {
+        HelperRegistry<FakeHelper> registry = new HelperRegistry<>(50);
+        FakeHelper helper = registry.acquire("a", () -> new FakeHelper(60));
+        assertSame(helper, registry.acquire("a", () -> new FakeHelper(60)));
+
+        registry.release("a", helper);
+        assertFalse(helper.closed);
+        assertEquals(60, registry.getUsedBytes());
+
+        registry.release("a", helper);
+        assertTrue(helper.closed);
+        assertEquals(0, registry.size());
+        assertEquals(0, registry.getUsedBytes());
+    }
+
+    @Test
+    void estimatesFootprintAgainOnRelease() throws Exception {
+        HelperRegistry<FakeHelper> registry = new HelperRegistry<>(100);
+        FakeHelper helper = use(registry, "a", 10);
+        assertEquals(10, registry.getUsedBytes());
+
+        // Grown by a refresh
+        helper.footprint = 70;
+        assertSame(helper, use(registry, "a", 10));
+        assertEquals(70, registry.getUsedBytes());
+    }
+
+    @Test
+    void failedLoadIsNotKept() throws Exception {
+        HelperRegistry<FakeHelper> registry = new HelperRegistry<>(100);
+        AtomicInteger loads = new AtomicInteger();
+        assertThrows(IllegalStateException.class, () -> registry.acquire("a", () -> {
+            loads.incrementAndGet();
+            throw new IllegalStateException("Failed to load");
+        }));
+        assertEquals(0, registry.size());
+
+        use(registry, "a", 10);
+        assertEquals(1, registry.size());
+        assertEquals(1, loads.get());
+    }
+}
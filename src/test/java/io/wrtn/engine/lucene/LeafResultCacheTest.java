@@ -0,0 +1,140 @@
+package io.wrtn.engine.lucene;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.util.Arrays;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field.Store;
+import org.apache.lucene.document.SortedDocValuesField;
+import org.apache.lucene.document.StringField;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.NoMergePolicy;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.Sort;
+import org.apache.lucene.search.SortField;
+import org.apache.lucene.search.TermQuery;
+import org.apache.lucene.search.TopDocs;
+import org.apache.lucene.search.TopFieldDocs;
+import org.apache.lucene.search.TotalHits;
+import org.apache.lucene.store.ByteBuffersDirectory;
+import org.apache.lucene.util.BytesRef;
+import org.junit.jupiter.api.Test;
+
+class LeafResultCacheTest {
+
+    private static final Sort sort = new Sort(new SortField("rank", SortField.Type.STRING));
+    private static final Query query = new TermQuery(new Term("type", "a"));
+
+    private static Document doc(String id, String type, String rank) {
+        Document doc = new Document();
+        doc.add(new StringField("id", id, Store.NO));
+        doc.add(new StringField("type", type, Store.NO));
+        doc.add(new SortedDocValuesField("rank", new BytesRef(rank)));
+        return doc;
+    }
+
+    private static IndexWriter writer() throws IOException {
+        return new IndexWriter(new ByteBuffersDirectory(),
+            new IndexWriterConfig().setMergePolicy(NoMergePolicy.INSTANCE));
+    }
+
+    private static void addSegment(IndexWriter writer, int from, int to) throws IOException {
+        for (int i = from; i < to; i++) {
+            writer.addDocument(doc(String.valueOf(i), "a", "r" + i));
+            writer.addDocument(doc("b" + i, "b", "r" + i));
+        }
+        writer.commit();
+    }
+
+    private static int[] docs(TopDocs topDocs) {
+        return Arrays.stream(topDocs.scoreDocs).mapToInt(scoreDoc -> scoreDoc.doc).toArray();
+    }
+
+    private static TopFieldDocs search(LeafResultCache cache, DirectoryReader reader, int size)
+        throws IOException {
+        SearchResult<TopFieldDocs> result = cache.search(new IndexSearcher(reader), query, sort,
+            size, null);
+        TopDocs expected = new IndexSearcher(reader).search(query, size, sort);
+
+        assertArrayEquals(docs(expected), docs(result.results()));
+        return result.results();
+    }
+
+    @Test
+    void appliesDeletionsMadeAcrossReopens() throws IOException {
+        LeafResultCache cache = new LeafResultCache(16, 1 << 20);
+        try (IndexWriter writer = writer()) {
+            addSegment(writer, 0, 10);
+            DirectoryReader reader = DirectoryReader.open(writer);
+            TopFieldDocs topDocs = search(cache, reader, 3);
+            assertEquals(new TotalHits(10, TotalHits.Relation.EQUAL_TO), topDocs.totalHits);
+
+            // The cached hits of the first segment are still enough for 2 hits
+            writer.deleteDocuments(new Term("id", "0"));
+            addSegment(writer, 10, 12);
+            reader.close();
+            reader = DirectoryReader.open(writer);
+            topDocs = search(cache, reader, 2);
+            assertEquals(new TotalHits(11, TotalHits.Relation.GREATER_THAN_OR_EQUAL_TO),
+                topDocs.totalHits);
+
+            // Too few are left, so the first segment is searched again
+            writer.deleteDocuments(new Term("id", "1"), new Term("id", "2"));
+            writer.commit();
+            reader.close();
+            reader = DirectoryReader.open(writer);
+            topDocs = search(cache, reader, 2);
+            assertEquals(new TotalHits(9, TotalHits.Relation.EQUAL_TO), topDocs.totalHits);
+            reader.close();
+        }
+    }
+
+    @Test
+    void exhaustedHitsCountTheLiveMatches() throws IOException {
+        LeafResultCache cache = new LeafResultCache(16, 1 << 20);
+        try (IndexWriter writer = writer()) {
+            addSegment(writer, 0, 3);
+            DirectoryReader reader = DirectoryReader.open(writer);
+            search(cache, reader, 10);
+
+            writer.deleteDocuments(new Term("id", "1"));
+            writer.commit();
+            reader.close();
+            reader = DirectoryReader.open(writer);
+            TopFieldDocs topDocs = search(cache, reader, 1);
+            assertEquals(new TotalHits(2, TotalHits.Relation.EQUAL_TO), topDocs.totalHits);
+            reader.close();
+        }
+    }
+
+    @Test
+    void staysWithinItsByteBudget() throws IOException {
+        try (IndexWriter writer = writer()) {
+            addSegment(writer, 0, 10);
+            try (DirectoryReader reader = DirectoryReader.open(writer)) {
+                LeafResultCache unbounded = new LeafResultCache(16, 1 << 20);
+                unbounded.search(new IndexSearcher(reader), query, sort, 5, null);
+                long entryBytes = unbounded.ramBytesUsed();
+                assertTrue(entryBytes > 0);
+
+                // Room for a single entry, so the second query evicts the first
+                LeafResultCache bounded = new LeafResultCache(16, entryBytes * 3 / 2);
+                bounded.search(new IndexSearcher(reader), query, sort, 5, null);
+                bounded.search(new IndexSearcher(reader), new TermQuery(new Term("type", "b")),
+                    sort, 5, null);
+                assertEquals(entryBytes, bounded.ramBytesUsed());
+
+                LeafResultCache tooSmall = new LeafResultCache(16, entryBytes - 1);
+                tooSmall.search(new IndexSearcher(reader), query, sort, 5, null);
+                assertEquals(0, tooSmall.ramBytesUsed());
+            }
+        }
+    }
+}
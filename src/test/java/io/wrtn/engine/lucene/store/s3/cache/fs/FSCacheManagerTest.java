@@ -0,0 +1,115 @@
+package io.wrtn.engine.lucene.store.s3.cache.fs;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import io.wrtn.engine.lucene.store.s3.cache.fs.FSCacheManager.EvictionPolicy;
+import io.wrtn.engine.lucene.store.s3.cache.fs.FSCacheManager.Stats;
+import io.wrtn.util.GlobalLogger;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class FSCacheManagerTest {
+
+    private static final int FILE_SIZE = 100;
+
+    @TempDir
+    Path dir;
+
+    @BeforeAll
+    static void initLogger() {
+        GlobalLogger.initialize(false);
+    }
+
+    private static void write(Path path) throws IOException {
+        Files.write(path, new byte[FILE_SIZE]);
+    }
+
+    private static void assertCounted(FSCacheManager manager, int files, long usedBytes) {
+        Stats stats = manager.getStats();
+        assertEquals(files, stats.files());
+        assertEquals(usedBytes, stats.usedBytes());
+    }
+
+    /**
+     * Downloads another file over the capacity, which evicts the unpinned file if it is counted.
+     */
+    private static void assertEvictable(FSCacheManager manager, Path path) {
+        manager.pinMiss(path.resolveSibling("other"), FILE_SIZE);
+
+        assertFalse(Files.exists(path));
+        assertEquals(1, manager.getStats().evictedFiles());
+        assertCounted(manager, 1, FILE_SIZE);
+    }
+
+    @Test
+    void readerClosedDuringPrefetchLeavesTheDownloadCounted() throws IOException {
+        FSCacheManager manager = new FSCacheManager(FILE_SIZE * 3 / 2, EvictionPolicy.LRU);
+        Path path = dir.resolve("_0.cfs");
+
+        // Prefetch starts, then a block file is opened on the same path
+        manager.pinMiss(path, FILE_SIZE);
+        manager.pinMiss(path, FILE_SIZE);
+        // The block file is closed before the download completes
+        manager.unpin(path);
+        assertCounted(manager, 1, FILE_SIZE);
+
+        // The download moves the file into place
+        write(path);
+        manager.unpin(path);
+        assertCounted(manager, 1, FILE_SIZE);
+        assertEvictable(manager, path);
+    }
+
+    @Test
+    void failedPrefetchLeavesThePromotedBlockFileCounted() throws IOException {
+        FSCacheManager manager = new FSCacheManager(FILE_SIZE * 3 / 2, EvictionPolicy.LRU);
+        Path path = dir.resolve("_0.cfs");
+
+        manager.pinMiss(path, FILE_SIZE);
+        manager.pinMiss(path, FILE_SIZE);
+        // The prefetch fails while the block file is open
+        manager.unpin(path);
+        assertCounted(manager, 1, FILE_SIZE);
+
+        // The block file loads every block, promotes its partial file and is closed
+        write(path);
+        manager.unpin(path);
+        assertCounted(manager, 1, FILE_SIZE);
+        assertEvictable(manager, path);
+    }
+
+    @Test
+    void absentFileIsForgottenWithItsLastPin() {
+        FSCacheManager manager = new FSCacheManager(FILE_SIZE * 3 / 2, EvictionPolicy.LRU);
+        Path path = dir.resolve("_0.cfs");
+
+        manager.pinMiss(path, FILE_SIZE);
+        manager.pinMiss(path, FILE_SIZE);
+        manager.unpin(path);
+        assertCounted(manager, 1, FILE_SIZE);
+        manager.unpin(path);
+        assertCounted(manager, 0, 0);
+    }
+
+    @Test
+    void deletedFileIsForgottenOnceUnpinned() throws IOException {
+        FSCacheManager manager = new FSCacheManager(FILE_SIZE * 3 / 2, EvictionPolicy.LRU);
+        Path path = dir.resolve("_0.cfs");
+        write(path);
+
+        assertTrue(manager.pinIfPresent(path, FILE_SIZE));
+        Files.delete(path);
+        // Still open by a reader
+        manager.remove(path);
+        assertCounted(manager, 1, FILE_SIZE);
+
+        manager.unpin(path);
+        assertCounted(manager, 0, 0);
+    }
+}
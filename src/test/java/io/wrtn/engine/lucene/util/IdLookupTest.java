@@ -0,0 +1,88 @@
+package io.wrtn.engine.lucene.util;
+
+import static io.wrtn.engine.lucene.Constants.DOC_FIELD_ID;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.io.IOException;
+import java.util.Arrays;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field.Store;
+import org.apache.lucene.document.StringField;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.NoMergePolicy;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.BooleanClause.Occur;
+import org.apache.lucene.search.BooleanQuery;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.TermQuery;
+import org.apache.lucene.search.TopDocs;
+import org.apache.lucene.search.TotalHits;
+import org.apache.lucene.store.ByteBuffersDirectory;
+import org.junit.jupiter.api.Test;
+
+class IdLookupTest {
+
+    private static Document doc(String id) {
+        Document doc = new Document();
+        doc.add(new StringField(DOC_FIELD_ID, id, Store.YES));
+        return doc;
+    }
+
+    /**
+     * Resolves the ids with the query fetches were made with before.
+     */
+    private static int[] searchIds(DirectoryReader reader, String[] ids) throws IOException {
+        BooleanQuery.Builder builder = new BooleanQuery.Builder();
+        for (String id : ids) {
+            builder.add(new TermQuery(new Term(DOC_FIELD_ID, id)), Occur.SHOULD);
+        }
+        TopDocs topDocs = new IndexSearcher(reader).search(builder.build(), ids.length);
+        return Arrays.stream(topDocs.scoreDocs).mapToInt(hit -> hit.doc).sorted().toArray();
+    }
+
+    private static int[] lookupIds(DirectoryReader reader, String[] ids) throws IOException {
+        TopDocs topDocs = IdLookup.lookup(reader, ids);
+        assertEquals(new TotalHits(topDocs.scoreDocs.length, TotalHits.Relation.EQUAL_TO),
+            topDocs.totalHits);
+        return Arrays.stream(topDocs.scoreDocs).mapToInt(hit -> hit.doc).toArray();
+    }
+
+    @Test
+    void findsTheSameDocumentsAsATermQuery() throws IOException {
+        try (IndexWriter writer = new IndexWriter(new ByteBuffersDirectory(),
+            new IndexWriterConfig().setMergePolicy(NoMergePolicy.INSTANCE))) {
+            for (int i = 0; i < 20; i++) {
+                writer.addDocument(doc("id" + i));
+            }
+            writer.commit();
+            // Updated into a new segment, deleted, and added in a new segment
+            writer.updateDocument(new Term(DOC_FIELD_ID, "id3"), doc("id3"));
+            writer.deleteDocuments(new Term(DOC_FIELD_ID, "id7"));
+            writer.addDocument(doc("id20"));
+            writer.commit();
+
+            try (DirectoryReader reader = DirectoryReader.open(writer)) {
+                String[][] lookups = {
+                    {"id1"},
+                    {"id19", "id3", "id0", "id20"},
+                    {"id7", "missing", "id12"},
+                    {"missing"},
+                };
+                for (String[] ids : lookups) {
+                    assertArrayEquals(searchIds(reader, ids), lookupIds(reader, ids),
+                        Arrays.toString(ids));
+                }
+
+                assertEquals(0, lookupIds(reader, new String[0]).length);
+                // Duplicate ids resolve once
+                assertArrayEquals(searchIds(reader, new String[]{"id5", "id9"}),
+                    lookupIds(reader, new String[]{"id9", "id5", "id9"}));
+                assertEquals("id3", reader.storedFields()
+                    .document(lookupIds(reader, new String[]{"id3"})[0]).get(DOC_FIELD_ID));
+            }
+        }
+    }
+}
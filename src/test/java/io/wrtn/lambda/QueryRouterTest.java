@@ -0,0 +1,233 @@
+package io.wrtn.lambda;
+
+import static io.wrtn.engine.lucene.Constants.DATA_TYPE_KEYWORD;
+import static io.wrtn.engine.lucene.Constants.DOC_FIELD_ID;
+import static io.wrtn.util.Constants.CommandType.DOCUMENT_FETCH;
+import static io.wrtn.util.Constants.CommandType.DOCUMENT_QUERY;
+import static io.wrtn.util.Constants.CommandType.DOCUMENT_QUERY_HITS;
+import static io.wrtn.util.Constants.IndexClass.INDEX_CLASS_STD;
+import static io.wrtn.util.JsonParser.gson;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.google.gson.JsonObject;
+import io.wrtn.dto.NodeFailure;
+import io.wrtn.dto.QueryRequest;
+import io.wrtn.dto.QueryResponse;
+import io.wrtn.infra.aws.Lambda;
+import io.wrtn.model.document.Document;
+import io.wrtn.model.document.Hit;
+import io.wrtn.model.document.QueryHits;
+import io.wrtn.model.event.QueryEvent;
+import io.wrtn.model.index.FieldConfig;
+import io.wrtn.model.index.Index;
+import io.wrtn.model.storage.ComputeNode;
+import io.wrtn.model.storage.File;
+import io.wrtn.model.storage.StorageMetadata;
+import io.wrtn.util.BinaryResultCodec;
+import io.wrtn.util.GlobalExceptionHandler;
+import io.wrtn.util.JsonParser;
+import io.wrtn.util.PathBuilder;
+import io.wrtn.util.ResultBody;
+import io.wrtn.util.StatusCode;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import org.junit.jupiter.api.Test;
+import software.amazon.awssdk.auth.credentials.AwsBasicCredentials;
+import software.amazon.awssdk.auth.credentials.StaticCredentialsProvider;
+import software.amazon.awssdk.core.SdkBytes;
+import software.amazon.awssdk.services.lambda.model.InvokeResponse;
+
+class QueryRouterTest {
+
+    private static final AtomicInteger indexCounter = new AtomicInteger();
+
+    /**
+     * Answers invocations with the result of a handler, as the Lambda runtime returns the String
+     * returned by a RequestHandler.
+     */
+    private static final class FakeLambda extends Lambda {
+
+        private final Function<QueryEvent, CompletableFuture<String>> handler;
+
+        FakeLambda(Function<QueryEvent, CompletableFuture<String>> handler) {
+            super(StaticCredentialsProvider.create(AwsBasicCredentials.create("test", "test")));
+            this.handler = handler;
+        }
+
+        @Override
+        public CompletableFuture<InvokeResponse> invokeAsync(String name, String qualifier,
+            Object payload) {
+            QueryEvent event = gson.fromJson(gson.toJson(payload), QueryEvent.class);
+            return handler.apply(event).thenApply(result -> InvokeResponse.builder()
+                .statusCode(200)
+                .payload(SdkBytes.fromUtf8String(gson.toJson(result)))
+                .build());
+        }
+    }
+
+    private static Map<String, FieldConfig> mappings() {
+        FieldConfig title = new FieldConfig();
+        title.setType(DATA_TYPE_KEYWORD);
+        return Map.of("title", title);
+    }
+
+    private static Index index() {
+        Index index = new Index();
+        index.setProjectId("project");
+        index.setIndexName("index-" + indexCounter.incrementAndGet());
+        index.setIndexClass(INDEX_CLASS_STD);
+        index.setMappings(mappings());
+        index.setDataUpdatedAt(1L);
+        return index;
+    }
+
+    private static StorageMetadata meta(int numNodes) {
+        List<Integer> nodeIds = new ArrayList<>();
+        List<ComputeNode> nodes = new ArrayList<>();
+        for (int i = 0; i < numNodes; i++) {
+            nodeIds.add(i);
+            nodes.add(new ComputeNode(i, List.of("_" + i)));
+        }
+        StorageMetadata meta = new StorageMetadata("prefix/", nodeIds);
+        meta.setDataUpdatedAt(1L);
+        meta.setComputeNodes(nodes);
+        for (int i = 0; i < numNodes; i++) {
+            String name = PathBuilder.buildPartitionMetaName(i);
+            meta.getFileMap().put(name, new File(name, 1L, "v1", 0));
+        }
+        return meta;
+    }
+
+    private static QueryRequest request(long timeoutMs) {
+        JsonObject queryString = new JsonObject();
+        queryString.addProperty("query", "title:a");
+        JsonObject query = new JsonObject();
+        query.add("queryString", queryString);
+
+        QueryRequest request = new QueryRequest();
+        request.setQuery(query);
+        request.setSize(10);
+        request.setTimeoutMs(timeoutMs);
+        return request;
+    }
+
+    private static Hit hit(String id, float score) {
+        Hit hit = new Hit();
+        hit.setId(id);
+        hit.setScore(score);
+        return hit;
+    }
+
+    private static String hits(Hit... hits) {
+        ResultBody body = out -> JsonParser.writeHits(new QueryHits(hits, false), out);
+        return body.asString();
+    }
+
+    private static String documents(String... ids) {
+        Document[] docs = new Document[ids.length];
+        for (int i = 0; i < ids.length; i++) {
+            JsonObject doc = new JsonObject();
+            doc.addProperty(DOC_FIELD_ID, ids[i]);
+            doc.addProperty("title", "a");
+            docs[i] = new Document();
+            docs[i].setDoc(doc);
+        }
+        return BinaryResultCodec.encodeDocuments(docs, mappings());
+    }
+
+    private static <T> CompletableFuture<T> delayed(T value, long delayMs) {
+        return CompletableFuture.supplyAsync(() -> value,
+            CompletableFuture.delayedExecutor(delayMs, TimeUnit.MILLISECONDS));
+    }
+
+    /**
+     * Builds a router whose storage metadata of the index is already cached, as after a refresh.
+     */
+    private static QueryRouter router(Index index, StorageMetadata meta,
+        Function<QueryEvent, CompletableFuture<String>> handler) throws Exception {
+        QueryRouter router = new QueryRouter(null, new FakeLambda(event -> {
+            if (event.getType().equals(DOCUMENT_QUERY) && event.getConsistentRead()) {
+                return CompletableFuture.completedFuture(documents());
+            }
+            return handler.apply(event);
+        }));
+        router.refreshHandler(index, meta, request(1).getQuery());
+        return router;
+    }
+
+    private static String[] ids(QueryResponse response) {
+        return Arrays.stream(response.getDocs())
+            .map(doc -> doc.getDoc().get(DOC_FIELD_ID).getAsString())
+            .toArray(String[]::new);
+    }
+
+    @Test
+    void timedOutQueryPhaseStillFetchesTheHitsFoundInTime() throws Exception {
+        Index index = index();
+        QueryRouter router = router(index, meta(2), event -> {
+            if (event.getComputeNodeId() == 1) {
+                // Never answers
+                return new CompletableFuture<>();
+            } else if (event.getType().equals(DOCUMENT_QUERY_HITS)) {
+                return CompletableFuture.completedFuture(hits(hit("a", 2), hit("b", 1)));
+            } else if (event.getType().equals(DOCUMENT_FETCH)) {
+                return delayed(documents(event.getIds()), 50);
+            }
+            throw new IllegalStateException("Unexpected event " + event.getType());
+        });
+
+        QueryResponse response = router.queryHandler(request(1000), index);
+
+        assertArrayEquals(new String[]{"a", "b"}, ids(response));
+        assertTrue(response.getTimedOut());
+        assertEquals(1, response.getFailures().length);
+        NodeFailure failure = response.getFailures()[0];
+        assertEquals(1, failure.getComputeNodeId());
+    }
+
+    @Test
+    void failedNodeIsReportedWithoutTimingOut() throws Exception {
+        Index index = index();
+        QueryRouter router = router(index, meta(2), event -> {
+            if (event.getComputeNodeId() == 1) {
+                return CompletableFuture.failedFuture(
+                    new GlobalExceptionHandler("Node failed", StatusCode.SERVER_ERROR));
+            } else if (event.getType().equals(DOCUMENT_QUERY_HITS)) {
+                return CompletableFuture.completedFuture(hits(hit("a", 2), hit("b", 1)));
+            } else if (event.getType().equals(DOCUMENT_FETCH)) {
+                return CompletableFuture.completedFuture(documents(event.getIds()));
+            }
+            throw new IllegalStateException("Unexpected event " + event.getType());
+        });
+
+        QueryResponse response = router.queryHandler(request(1000), index);
+
+        assertArrayEquals(new String[]{"a", "b"}, ids(response));
+        assertFalse(response.getTimedOut());
+        assertEquals(1, response.getFailures().length);
+        NodeFailure failure = response.getFailures()[0];
+        assertEquals(1, failure.getComputeNodeId());
+        assertEquals("Node failed", failure.getReason());
+    }
+
+    @Test
+    void errorIsRethrownWhenEveryNodeFails() throws Exception {
+        Index index = index();
+        QueryRouter router = router(index, meta(2), event -> CompletableFuture.failedFuture(
+            new GlobalExceptionHandler("Node failed", StatusCode.BAD_REQUEST)));
+
+        GlobalExceptionHandler e = assertThrows(GlobalExceptionHandler.class,
+            () -> router.queryHandler(request(1000), index));
+        assertEquals(StatusCode.BAD_REQUEST, e.getErrorCode());
+    }
+}
@@ -0,0 +1,127 @@
+package io.wrtn.util;
+
+import static io.wrtn.engine.lucene.Constants.DATA_TYPE_KEYWORD;
+import static io.wrtn.engine.lucene.Constants.DATA_TYPE_OBJECT;
+import static io.wrtn.engine.lucene.Constants.DATA_TYPE_VECTOR;
+import static io.wrtn.engine.lucene.Constants.DOC_FIELD_ID;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonNull;
+import com.google.gson.JsonObject;
+import io.wrtn.model.document.Document;
+import io.wrtn.model.document.RefreshedDocs;
+import io.wrtn.model.index.FieldConfig;
+import java.util.Map;
+import java.util.Set;
+import org.junit.jupiter.api.Test;
+
+class BinaryResultCodecTest {
+
+    private static FieldConfig field(String type) {
+        FieldConfig field = new FieldConfig();
+        field.setType(type);
+        return field;
+    }
+
+    private static Map<String, FieldConfig> mappings() {
+        FieldConfig nested = field(DATA_TYPE_OBJECT);
+        nested.setObjectMapping(Map.of("embedding", field(DATA_TYPE_VECTOR)));
+        return Map.of(
+            "title", field(DATA_TYPE_KEYWORD),
+            "embedding", field(DATA_TYPE_VECTOR),
+            "nested", nested);
+    }
+
+    private static JsonArray vector(double... values) {
+        JsonArray vector = new JsonArray();
+        for (double value : values) {
+            vector.add(value);
+        }
+        return vector;
+    }
+
+    private static Document document(String id, String title) {
+        JsonObject nested = new JsonObject();
+        nested.add("embedding", vector(-1, 0.125));
+        nested.addProperty("note", "ü \\ \"  ");
+        JsonObject doc = new JsonObject();
+        doc.addProperty(DOC_FIELD_ID, id);
+        doc.addProperty("title", title);
+        doc.add("embedding", vector(0.5, 0.25, 3));
+        doc.add("nested", nested);
+
+        JsonArray sortValues = new JsonArray();
+        sortValues.add(42L);
+        sortValues.add(1.5);
+        sortValues.add(JsonNull.INSTANCE);
+        sortValues.add(id);
+
+        Document document = new Document();
+        document.setIndex("index");
+        document.setScore(1.25f);
+        document.setSortValues(sortValues);
+        document.setDoc(doc);
+        return document;
+    }
+
+    private static void assertDocumentsEqual(Document[] expected, Document[] actual) {
+        assertEquals(expected.length, actual.length);
+        for (int i = 0; i < expected.length; i++) {
+            assertEquals(expected[i].getIndex(), actual[i].getIndex());
+            assertEquals(expected[i].getScore(), actual[i].getScore());
+            assertEquals(expected[i].getSortValues(), actual[i].getSortValues());
+            assertEquals(expected[i].getDoc(), actual[i].getDoc());
+        }
+    }
+
+    @Test
+    void roundTripsDocuments() {
+        Document withoutScore = document("b", "without score");
+        withoutScore.setScore(null);
+        withoutScore.setSortValues(null);
+        Document[] docs = {document("a", "title"), withoutScore};
+
+        String payload = BinaryResultCodec.encodeDocuments(docs, mappings());
+
+        assertTrue(BinaryResultCodec.isEncoded(payload));
+        assertFalse(BinaryResultCodec.isTimedOut(payload));
+        assertDocumentsEqual(new Document[]{document("a", "title"), withoutScore},
+            BinaryResultCodec.decodeDocuments(payload));
+        // Vectors are put back into the encoded documents
+        assertEquals(document("a", "title").getDoc(), docs[0].getDoc());
+    }
+
+    @Test
+    void roundTripsDeflatedDocuments() {
+        Document[] docs = new Document[1000];
+        for (int i = 0; i < docs.length; i++) {
+            docs[i] = document("id" + i, "title " + i);
+        }
+
+        String payload = BinaryResultCodec.encodeDocuments(docs, mappings(), true);
+
+        // Deflated well below the size of the documents alone
+        assertTrue(payload.length() < docs.length * 100);
+        assertTrue(BinaryResultCodec.isTimedOut(payload));
+        assertDocumentsEqual(docs, BinaryResultCodec.decodeDocuments(payload));
+    }
+
+    @Test
+    void roundTripsRefreshedDocuments() {
+        Document[] docs = {document("a", "title")};
+
+        RefreshedDocs decoded = BinaryResultCodec.decodeRefreshedDocs(
+            BinaryResultCodec.encodeRefreshedDocs(new RefreshedDocs(docs, Set.of("b", "c")),
+                mappings()));
+        assertDocumentsEqual(docs, decoded.getDocuments());
+        assertEquals(Set.of("b", "c"), decoded.getDeletedDocIdSet());
+
+        decoded = BinaryResultCodec.decodeRefreshedDocs(
+            BinaryResultCodec.encodeRefreshedDocs(new RefreshedDocs(docs, null), mappings()));
+        assertNull(decoded.getDeletedDocIdSet());
+    }
+}
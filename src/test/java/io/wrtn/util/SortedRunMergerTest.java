@@ -0,0 +1,80 @@
+package io.wrtn.util;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import io.wrtn.model.document.Hit;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Set;
+import org.junit.jupiter.api.Test;
+
+class SortedRunMergerTest {
+
+    private record Result(String id, int rank) {
+
+    }
+
+    private static final Comparator<Integer> naturalOrder = Comparator.naturalOrder();
+    private static final Comparator<Result> byRank = Comparator.comparingInt(Result::rank);
+
+    private static List<String> ids(List<Result> results) {
+        return results.stream().map(Result::id).toList();
+    }
+
+    private static Hit hit(String id, float score) {
+        Hit hit = new Hit();
+        hit.setId(id);
+        hit.setScore(score);
+        return hit;
+    }
+
+    @Test
+    void mergesRunsIntoTheTopResults() {
+        SortedRunMerger<Integer> merger = new SortedRunMerger<>(naturalOrder, 5);
+        merger.addRun(new Integer[]{1, 4, 7});
+        merger.addRun(new Integer[]{});
+        merger.addRun(new Integer[]{2, 5});
+        merger.addRun(new Integer[]{3, 6, 8});
+
+        assertEquals(List.of(1, 2, 3, 4, 5), merger.getResult());
+    }
+
+    @Test
+    void returnsEveryResultBelowSize() {
+        SortedRunMerger<Integer> merger = new SortedRunMerger<>(naturalOrder, 10);
+        merger.addRun(new Integer[]{2, 3});
+        merger.addRun(new Integer[]{1});
+
+        assertEquals(List.of(1, 2, 3), merger.getResult());
+    }
+
+    @Test
+    void replacingRunReplacesUpdatedAndDeletedResults() {
+        SortedRunMerger<Result> merger = new SortedRunMerger<>(byRank, 3, Result::id);
+        merger.addRun(new Result[]{new Result("a", 1), new Result("b", 3), new Result("c", 5)});
+        merger.addRun(new Result[]{new Result("d", 2), new Result("e", 4)});
+        // b was updated and d deleted
+        merger.addReplacingRun(new Result[]{new Result("b", 0), new Result("f", 6)},
+            Set.of("b", "d"));
+
+        assertEquals(List.of("b", "a", "e"), ids(merger.getResult()));
+    }
+
+    @Test
+    void scoreTiesInLuceneOrderMergeById() throws Exception {
+        Comparator<Hit> comparator = DocumentSorter.createHitComparator(null, null);
+        // Lucene breaks the ties by document number
+        List<Hit> run1 = new ArrayList<>(List.of(hit("c", 2), hit("a", 2), hit("e", 1)));
+        List<Hit> run2 = new ArrayList<>(List.of(hit("d", 2), hit("b", 2), hit("f", 0)));
+        DocumentSorter.sortScoreTies(run1, Hit::getScore, Hit::getId);
+        DocumentSorter.sortScoreTies(run2, Hit::getScore, Hit::getId);
+
+        SortedRunMerger<Hit> merger = new SortedRunMerger<>(comparator, 5);
+        merger.addRun(run1.toArray(new Hit[0]));
+        merger.addRun(run2.toArray(new Hit[0]));
+
+        assertEquals(List.of("a", "b", "c", "d", "e"),
+            merger.getResult().stream().map(Hit::getId).toList());
+    }
+}